@@ -46,6 +46,30 @@ public class MongoDbFileSystemAutoConfiguration {
          * 文件大小阈值，大于该阈值的使用GridFs而不是普通Document。阈值上限是mongodb上限16m。
          */
         private Integer fileSizeThreshold = 15 * 1024 * 1024;
+        /**
+         * 写入时计算文件内容的校验和，保存在路径文档中，读取流读到末尾时校验
+         */
+        private boolean checksum = false;
+        /**
+         * 启动时在路径集合上创建查找、列举所需的索引
+         */
+        private boolean ensureIndexes = true;
+
+        public boolean isEnsureIndexes() {
+            return ensureIndexes;
+        }
+
+        public void setEnsureIndexes(boolean ensureIndexes) {
+            this.ensureIndexes = ensureIndexes;
+        }
+
+        public boolean isChecksum() {
+            return checksum;
+        }
+
+        public void setChecksum(boolean checksum) {
+            this.checksum = checksum;
+        }
 
         public Integer getFileSizeThreshold() {
             return fileSizeThreshold;
@@ -0,0 +1,214 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import com.ai.southernquiet.filesystem.NormalizedPath;
+import com.ai.southernquiet.filesystem.PathEvent;
+import com.ai.southernquiet.filesystem.PathWatcher;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static com.ai.southernquiet.filesystem.FileSystem.PATH_SEPARATOR_STRING;
+
+/**
+ * 基于mongodb change stream的目录订阅，需要mongodb以副本集方式运行。
+ * <ul>
+ * <li>删除事件中没有文档内容，服务端无法按目录过滤，集合中所有的删除事件都会发送到订阅方，
+ * 再按维护的子路径id到路径的映射过滤；订阅的开销因此与整个集合的删除量成正比。</li>
+ * <li>游标出错时按最后收到的resume token重新订阅，不丢失事件；无法恢复时重新加载子路径并发出 {@link PathEvent.Kind#Overflow}。</li>
+ * </ul>
+ */
+class ChangeStreamPathWatcher implements PathWatcher {
+    private final static Logger log = LoggerFactory.getLogger(ChangeStreamPathWatcher.class);
+
+    private final static long RETRY_INTERVAL = 1000;
+
+    private MongoCollection<Document> collection;
+    private String directory;
+    private Consumer<PathEvent> listener;
+    private volatile MongoCursor<ChangeStreamDocument<Document>> cursor;
+    private BsonDocument resumeToken;
+    private Map<String, String> children = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    /**
+     * @param directory 被订阅目录的规格化路径
+     * @throws com.mongodb.MongoException mongodb不支持change stream
+     */
+    ChangeStreamPathWatcher(MongoCollection<Document> collection, String directory, Consumer<PathEvent> listener) {
+        this.collection = collection;
+        this.directory = directory;
+        this.listener = listener;
+
+        this.cursor = open(null);
+        loadChildren();
+
+        Thread thread = new Thread(this::dispatch, "sq-mongodb-fs-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        cursor.close();
+    }
+
+    private MongoCursor<ChangeStreamDocument<Document>> open(BsonDocument resumeToken) {
+        ChangeStreamIterable<Document> stream = collection
+            .watch(Collections.singletonList(Aggregates.match(Filters.or(
+                Filters.eq("fullDocument.parent", directory),
+                Filters.eq("operationType", "delete")
+            ))))
+            .fullDocument(FullDocument.UPDATE_LOOKUP);
+
+        if (null != resumeToken) {
+            stream = stream.resumeAfter(resumeToken);
+        }
+
+        return stream.iterator();
+    }
+
+    private void loadChildren() {
+        children.clear();
+        collection.find(Filters.eq("parent", directory))
+            .projection(Projections.include("name"))
+            .forEach((Consumer<Document>) doc -> children.put(doc.get("_id").toString(), getPath(doc.getString("name"))));
+    }
+
+    private void dispatch() {
+        while (!closed) {
+            try {
+                while (!closed && cursor.hasNext()) {
+                    ChangeStreamDocument<Document> change = cursor.next();
+                    resumeToken = change.getResumeToken();
+
+                    PathEvent event = toPathEvent(change);
+                    if (null != event) {
+                        notify(event);
+                    }
+                }
+            }
+            catch (Exception e) {
+                if (closed) return;
+
+                log.warn("订阅目录{}中断，重新订阅", directory, e);
+            }
+
+            if (closed) return;
+
+            try {
+                Thread.sleep(RETRY_INTERVAL);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+
+            reopen();
+        }
+    }
+
+    private void reopen() {
+        try {
+            cursor.close();
+        }
+        catch (Exception e) {
+            //pass
+        }
+
+        MongoCursor<ChangeStreamDocument<Document>> next = null;
+        if (null != resumeToken) {
+            try {
+                next = open(resumeToken);
+            }
+            catch (Exception e) {
+                log.warn("无法从中断处恢复订阅目录{}", directory, e);
+            }
+        }
+
+        boolean overflow = null == next;
+        try {
+            if (overflow) {
+                next = open(null);
+                resumeToken = null;
+                loadChildren();
+            }
+        }
+        catch (Exception e) {
+            log.warn("重新订阅目录{}失败", directory, e);
+            return;
+        }
+
+        cursor = next;
+        if (closed) {
+            next.close();
+            return;
+        }
+
+        if (overflow) {
+            notify(new PathEvent(PathEvent.Kind.Overflow, directory));
+        }
+    }
+
+    private void notify(PathEvent event) {
+        try {
+            listener.accept(event);
+        }
+        catch (Exception e) {
+            log.warn("处理目录变化{}失败", event, e);
+        }
+    }
+
+    private PathEvent toPathEvent(ChangeStreamDocument<Document> change) {
+        String id = getId(change.getDocumentKey().get("_id"));
+
+        switch (change.getOperationType()) {
+            case INSERT: {
+                String path = getPath(change.getFullDocument().getString("name"));
+                children.put(id, path);
+                return new PathEvent(PathEvent.Kind.Created, path);
+            }
+
+            case UPDATE:
+            case REPLACE: {
+                if (null == change.getFullDocument()) return null;
+
+                String path = getPath(change.getFullDocument().getString("name"));
+                children.put(id, path);
+                return new PathEvent(PathEvent.Kind.Modified, path);
+            }
+
+            case DELETE: {
+                String path = children.remove(id);
+                return null == path ? null : new PathEvent(PathEvent.Kind.Deleted, path);
+            }
+
+            default:
+                return new PathEvent(PathEvent.Kind.Overflow, directory);
+        }
+    }
+
+    private String getPath(String name) {
+        return NormalizedPath.of(directory + PATH_SEPARATOR_STRING + name).toString();
+    }
+
+    private String getId(BsonValue value) {
+        if (value.isObjectId()) return value.asObjectId().getValue().toHexString();
+        if (value.isString()) return value.asString().getValue();
+        return value.toString();
+    }
+}
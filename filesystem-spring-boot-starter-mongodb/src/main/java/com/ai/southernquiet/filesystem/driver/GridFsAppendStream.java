@@ -0,0 +1,160 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.gridfs.GridFS;
+import com.mongodb.gridfs.GridFSDBFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 在GridFS文件末尾追加内容的输出流，只重写最后一个不满的分块并写入新的分块，关闭时更新文件长度。
+ * 已有的分块不会被读取或重写，追加的代价只与追加的字节数有关。
+ * <ul>
+ * <li>文件长度在关闭时才更新，以文件长度为上限读取（见 {@link GridFsChunkChannel}）的读取方在此之前看到的仍是原来的内容。</li>
+ * <li>打开时即移除md5及用于去重的sha256，写入分块之前该文件就不会再被按内容找到并共享。</li>
+ * <li>打开到关闭期间metadata.exclusive加1，复制路径时不会再引用该文件。</li>
+ * <li>调用方须在打开之后确认该GridFS文件没有被其他路径共享，否则以 {@link #abandon()} 放弃追加。</li>
+ * </ul>
+ */
+class GridFsAppendStream extends OutputStream {
+    private final static String HASH_FIELD = "metadata.sha256";
+    private final static String EXCLUSIVE_FIELD = "metadata.exclusive";
+
+    private DBCollection chunks;
+    private DBCollection files;
+    private Object fileId;
+    private byte[] chunk;
+    private int chunkLength;
+    private int chunkNumber;
+    private long length;
+    private DBObject previous;
+    private boolean dirty;
+    private boolean closed;
+
+    GridFsAppendStream(GridFS gridFS, GridFSDBFile file) {
+        this.chunks = gridFS.getChunksCollection();
+        this.files = gridFS.getFilesCollection();
+        this.fileId = file.getId();
+        this.length = file.getLength();
+
+        this.previous = files.findAndModify(
+            new BasicDBObject("_id", fileId),
+            null,
+            null,
+            false,
+            new BasicDBObject("$unset", new BasicDBObject("md5", "").append(HASH_FIELD, ""))
+                .append("$inc", new BasicDBObject(EXCLUSIVE_FIELD, 1)),
+            false,
+            false
+        );
+
+        int chunkSize = (int) file.getChunkSize();
+        this.chunk = new byte[chunkSize];
+        this.chunkNumber = (int) (length / chunkSize);
+
+        int tail = (int) (length % chunkSize);
+        if (tail > 0) {
+            DBObject tailChunk = chunks.findOne(chunkQuery());
+            System.arraycopy((byte[]) tailChunk.get("data"), 0, chunk, 0, tail);
+            this.chunkLength = tail;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("流已关闭");
+
+        while (len > 0) {
+            int count = Math.min(len, chunk.length - chunkLength);
+            System.arraycopy(b, off, chunk, chunkLength, count);
+            chunkLength += count;
+            length += count;
+            off += count;
+            len -= count;
+            dirty = true;
+
+            if (chunkLength == chunk.length) {
+                flushChunk();
+                ++chunkNumber;
+                chunkLength = 0;
+            }
+        }
+    }
+
+    /**
+     * 写入剩余的分块并更新文件长度。
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+
+        BasicDBObject update = new BasicDBObject("$inc", new BasicDBObject(EXCLUSIVE_FIELD, -1));
+        if (dirty) {
+            if (chunkLength > 0) {
+                flushChunk();
+            }
+
+            update.append("$set", new BasicDBObject("length", length));
+        }
+
+        files.update(new BasicDBObject("_id", fileId), update);
+    }
+
+    /**
+     * 不写入任何内容，恢复打开时移除的md5及sha256，撤销metadata.exclusive。
+     */
+    void abandon() {
+        if (closed) return;
+        closed = true;
+
+        if (null == previous) return;
+
+        BasicDBObject restore = new BasicDBObject();
+        if (null != previous.get("md5")) {
+            restore.append("md5", previous.get("md5"));
+        }
+
+        DBObject metadata = (DBObject) previous.get("metadata");
+        if (null != metadata && null != metadata.get("sha256")) {
+            restore.append(HASH_FIELD, metadata.get("sha256"));
+        }
+
+        BasicDBObject update = new BasicDBObject("$inc", new BasicDBObject(EXCLUSIVE_FIELD, -1));
+        if (!restore.isEmpty()) {
+            update.append("$set", restore);
+        }
+
+        files.update(new BasicDBObject("_id", fileId), update);
+    }
+
+    /**
+     * @return 打开时GridFS文件的metadata，即移除sha256之前的状态，文件已不存在时返回null。
+     */
+    DBObject getPreviousMetadata() {
+        return null == previous ? null : (DBObject) previous.get("metadata");
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    private void flushChunk() {
+        DBObject query = chunkQuery();
+        DBObject document = new BasicDBObject("files_id", fileId).append("n", chunkNumber).append("data", Arrays.copyOf(chunk, chunkLength));
+        chunks.update(query, document, true, false);
+    }
+
+    private DBObject chunkQuery() {
+        return new BasicDBObject("files_id", fileId).append("n", chunkNumber);
+    }
+}
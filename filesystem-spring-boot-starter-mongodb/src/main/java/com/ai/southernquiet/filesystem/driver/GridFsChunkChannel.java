@@ -0,0 +1,78 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.gridfs.GridFS;
+import com.mongodb.gridfs.GridFSDBFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * 直接定位到GridFS分块的只读通道，只查询覆盖[position, position + count)的分块，不读取并丢弃之前的内容。
+ * <p>
+ * 读取的内容总是以打开时的文件长度为上限：追加时最后一个分块会先于文件长度被重写，中断的追加也可能在文件长度之后残留分块。
+ */
+class GridFsChunkChannel implements ReadableByteChannel {
+    private DBCursor cursor;
+    private ByteBuffer chunk;
+    private int skip;
+    private long remaining;
+    private boolean open = true;
+
+    /**
+     * @param count 最多读取的字节数。小于0则读到文件末尾。
+     */
+    GridFsChunkChannel(GridFS gridFS, GridFSDBFile file, long position, long count) {
+        long chunkSize = file.getChunkSize();
+        long startChunk = position / chunkSize;
+        this.skip = (int) (position % chunkSize);
+
+        long end = count >= 0 ? Math.min(position + count, file.getLength()) : file.getLength();
+        this.remaining = Math.max(end - position, 0);
+        BasicDBObject range = new BasicDBObject("$gte", startChunk)
+            .append("$lte", end > position ? (end - 1) / chunkSize : startChunk);
+
+        this.cursor = gridFS.getChunksCollection()
+            .find(new BasicDBObject("files_id", file.getId()).append("n", range))
+            .sort(new BasicDBObject("n", 1));
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) throw new ClosedChannelException();
+        if (0 == remaining) return -1;
+
+        while (null == chunk || !chunk.hasRemaining()) {
+            if (!cursor.hasNext()) return -1;
+
+            chunk = ByteBuffer.wrap((byte[]) cursor.next().get("data"));
+            if (skip > 0) {
+                chunk.position(Math.min(skip, chunk.limit()));
+                skip = 0;
+            }
+        }
+
+        int count = (int) Math.min(Math.min(chunk.remaining(), dst.remaining()), remaining);
+        ByteBuffer slice = chunk.duplicate();
+        slice.limit(slice.position() + count);
+        dst.put(slice);
+        chunk.position(chunk.position() + count);
+        remaining -= count;
+
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        cursor.close();
+    }
+}
@@ -2,19 +2,28 @@ package com.ai.southernquiet.filesystem.driver;
 
 import com.ai.southernquiet.filesystem.FileSystem;
 import com.ai.southernquiet.filesystem.*;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 import com.mongodb.gridfs.GridFS;
 import com.mongodb.gridfs.GridFSDBFile;
+import com.mongodb.gridfs.GridFSInputFile;
 import org.bson.Document;
 import org.bson.types.Binary;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
-import org.springframework.data.mongodb.gridfs.GridFsCriteria;
 import org.springframework.data.mongodb.gridfs.GridFsOperations;
 import org.springframework.data.util.CloseableIterator;
 import org.springframework.util.Assert;
@@ -22,12 +31,29 @@ import org.springframework.util.StreamUtils;
 import org.springframework.util.StringUtils;
 
 import java.io.*;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
 
 /**
  * {@link FileSystem}的mongodb驱动。
@@ -35,11 +61,30 @@ import java.util.stream.Stream;
 public class MongoDbFileSystem implements FileSystem {
     private static Logger logger = LoggerFactory.getLogger(MongoDbFileSystem.class);
 
+    private final static String BLOB_HASH_FIELD = "metadata.sha256";
+    /**
+     * 已被 {@link #storeBlob(InputStream, String)} 返回、但路径文档尚未写入的次数。
+     */
+    private final static String BLOB_PENDING_FIELD = "metadata.pending";
+    /**
+     * 正在被 {@link #releaseBlobs(Collection)} 释放或者被 {@link GridFsAppendStream} 原地追加的次数，大于0时复制路径不能再引用它。
+     */
+    private final static String BLOB_EXCLUSIVE_FIELD = "metadata.exclusive";
+    /**
+     * 内联的文件内容，可达16m，只在读取内容时查询。
+     */
+    private final static String FILE_DATA_FIELD = "fileData";
+    /**
+     * 批量操作中单次查询包含的路径数量上限。
+     */
+    private final static int BATCH_SIZE = 1000;
+
     private MongoOperations mongoOperations;
     private GridFsOperations gridFsOperations;
     private GridFS gridFs;
     private String pathCollection;
     private int fileSizeThreshold;
+    private boolean checksum;
 
     public MongoDbFileSystem(MongoDbFileSystemAutoConfiguration.Properties properties, MongoOperations mongoOperations, GridFsOperations gridFsOperations, GridFS gridFS) {
         this.pathCollection = properties.getPathCollection();
@@ -52,6 +97,7 @@ public class MongoDbFileSystem implements FileSystem {
             this.fileSizeThreshold = threshHold;
         }
 
+        this.checksum = properties.isChecksum();
         this.mongoOperations = mongoOperations;
         this.gridFsOperations = gridFsOperations;
         this.gridFs = gridFS;
@@ -59,83 +105,137 @@ public class MongoDbFileSystem implements FileSystem {
         if (!mongoOperations.collectionExists(this.pathCollection)) {
             mongoOperations.createCollection(this.pathCollection);
         }
+
+        if (properties.isEnsureIndexes()) {
+            ensureIndexes();
+        }
     }
 
     @Override
     public void createDirectory(String path) {
-        createAndGetDirectory(new NormalizedPath(path));
+        createAndGetDirectory(NormalizedPath.of(path));
     }
 
     @Override
     public void put(String path, InputStream stream) throws InvalidFileException {
         Assert.notNull(stream, "stream");
 
-        put(new NormalizedPath(path), stream);
+        put(NormalizedPath.of(path), stream);
+    }
+
+    /**
+     * 一次查询出所有已存在的路径，写入合并为一次批量操作。
+     */
+    @Override
+    public void putAll(Map<String, ? extends InputStream> files) throws InvalidFileException {
+        if (files.isEmpty()) return;
+
+        Map<String, MongoPathMeta> existing = metaAll(files.keySet());
+        Map<String, MongoPathMeta> directories = new HashMap<>();
+
+        BulkOperations bulkOperations = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, MongoPathMeta.class, pathCollection);
+        List<ObjectId> previousFileIds = new ArrayList<>();
+        List<ObjectId> pinned = new ArrayList<>();
+
+        //任何一项失败都要撤销已有的待引用标记，否则这些GridFS文件永远不会被释放，追加时也总被视为共享
+        boolean written = false;
+        try {
+            for (Map.Entry<String, ? extends InputStream> entry : files.entrySet()) {
+                Assert.notNull(entry.getValue(), "stream");
+
+                NormalizedPath normalizedPath = NormalizedPath.of(entry.getKey());
+                MongoPathMeta file = existing.get(entry.getKey());
+                if (null == file) {
+                    MongoPathMeta directory = directories.computeIfAbsent(normalizedPath.getParent(), parent -> createAndGetDirectory(normalizedPath.getParentPath()));
+                    file = new MongoPathMeta(normalizedPath, entry.getValue());
+                    file.setParentId(directory.getId());
+                }
+                else if (file.isDirectory()) {
+                    throw new InvalidFileException(normalizedPath.toString());
+                }
+
+                ObjectId previousFileId = file.getFileId();
+                ObjectId pinnedFileId = storeFile(file, entry.getValue());
+                if (null != pinnedFileId) {
+                    pinned.add(pinnedFileId);
+                }
+
+                if (null == file.getId()) {
+                    bulkOperations.insert(file);
+                }
+                else {
+                    bulkOperations.updateOne(newPathQuery(file), Update.fromDocument(new Document(file.toMap())));
+                }
+
+                if (null != previousFileId && !previousFileId.equals(file.getFileId())) {
+                    previousFileIds.add(previousFileId);
+                }
+            }
+
+            bulkOperations.execute();
+            written = true;
+        }
+        finally {
+            pinned.forEach(this::unpinBlob);
+
+            //已存入的GridFS文件可能没有路径文档引用
+            if (!written) {
+                releaseBlobs(pinned);
+            }
+        }
+
+        releaseBlobs(previousFileIds);
     }
 
     @Override
     public InputStream openReadStream(String path) throws InvalidFileException {
-        MongoPathMeta pathMeta = meta(path);
+        MongoPathMeta pathMeta = queryPathMeta(NormalizedPath.of(path));
         if (null == pathMeta) throw new InvalidFileException(path);
 
+        InputStream inputStream;
         if (null == pathMeta.getFileId()) {
-            return new ByteArrayInputStream(pathMeta.getFileData().getData());
+            inputStream = new ByteArrayInputStream(pathMeta.getFileData().getData());
+        }
+        else {
+            //GridFSDBFile.getInputStream()会读出文件长度之后的内容，见 GridFsChunkChannel
+            GridFSDBFile gridFSDBFile = gridFs.findOne(pathMeta.getFileId());
+            if (null == gridFSDBFile) throw new InvalidFileException(path);
+            inputStream = Channels.newInputStream(new GridFsChunkChannel(gridFs, gridFSDBFile, 0, -1));
+        }
+
+        return checksum ? FileChecksum.verify(inputStream, pathMeta.getChecksum(), path) : inputStream;
+    }
+
+    @Override
+    public RangedChannel openReadChannel(String path, long position, long count) throws InvalidFileException {
+        MongoPathMeta pathMeta = queryPathMeta(NormalizedPath.of(path));
+        if (null == pathMeta || pathMeta.isDirectory()) throw new InvalidFileException(path);
+
+        if (null == pathMeta.getFileId()) {
+            byte[] data = pathMeta.getFileData().getData();
+            int offset = (int) Math.min(position, data.length);
+            return new RangedChannel(Channels.newChannel(new ByteArrayInputStream(data, offset, data.length - offset)), count);
         }
 
         GridFSDBFile gridFSDBFile = gridFs.findOne(pathMeta.getFileId());
         if (null == gridFSDBFile) throw new InvalidFileException(path);
-        return gridFSDBFile.getInputStream();
+        return new RangedChannel(new GridFsChunkChannel(gridFs, gridFSDBFile, position, count), count);
     }
 
+    /**
+     * 追加写入，见 {@link AppendStream}。
+     */
     @Override
     public OutputStream openWriteStream(String path) throws InvalidFileException {
-        MongoPathMeta pathMeta = meta(path);
+        MongoPathMeta pathMeta = queryPathMeta(NormalizedPath.of(path));
         if (null == pathMeta || pathMeta.isDirectory()) throw new InvalidFileException(path);
 
-        File tmp;
-        try {
-            tmp = File.createTempFile("sq_write_proxy", "");
-            tmp.deleteOnExit();
-        }
-        catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        if (null == pathMeta.getFileId()) {
-            try (FileOutputStream fileOutputStream = new FileOutputStream(tmp)) {
-                fileOutputStream.write(pathMeta.getFileData().getData());
-            }
-            catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
-        else {
-            try {
-                gridFs.findOne(pathMeta.getFileId()).writeTo(tmp);
-            }
-            catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        if (null == pathMeta.getFileId()) return new AppendStream(pathMeta, null);
 
-        try {
-            return new FileOutputStream(tmp, true) {
-                @Override
-                public void close() throws IOException {
-                    super.close();
+        GridFSDBFile gridFSDBFile = gridFs.findOne(pathMeta.getFileId());
+        if (null == gridFSDBFile) throw new InvalidFileException(path);
 
-                    try (FileInputStream fileInputStream = new FileInputStream(tmp)) {
-                        put(new NormalizedPath(path), fileInputStream);
-                    }
-                    catch (InvalidFileException e) {
-                        throw new IOException(e);
-                    }
-                }
-            };
-        }
-        catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        }
+        return new AppendStream(pathMeta, gridFSDBFile);
     }
 
     @Override
@@ -146,8 +246,8 @@ public class MongoDbFileSystem implements FileSystem {
 
     @Override
     public void copy(String source, String destination, boolean replaceExisting) throws FileSystemException {
-        NormalizedPath normalizedSrc = new NormalizedPath(source);
-        NormalizedPath normalizedDest = new NormalizedPath(destination);
+        NormalizedPath normalizedSrc = NormalizedPath.of(source);
+        NormalizedPath normalizedDest = NormalizedPath.of(destination);
 
         MongoPathMeta sourcePathMeta = queryPathMeta(normalizedSrc);
         if (null == sourcePathMeta) throw new PathNotFoundException(source);
@@ -178,61 +278,113 @@ public class MongoDbFileSystem implements FileSystem {
 
     @Override
     public void delete(String path) {
-        delete(new NormalizedPath(path));
+        delete(NormalizedPath.of(path));
+    }
+
+    /**
+     * 文件一次查询、一次删除，不再被引用的GridFS文件一次查询出来再删除；目录仍逐个删除。
+     */
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        List<MongoPathMeta> files = new ArrayList<>();
+        metaAll(paths).values().forEach(meta -> {
+            if (null == meta) return;
+
+            if (meta.isDirectory()) {
+                delete(meta.getPath());
+            }
+            else {
+                files.add(meta);
+            }
+        });
+
+        if (files.isEmpty()) return;
+
+        List<String> ids = files.stream().map(MongoPathMeta::getId).collect(Collectors.toList());
+        mongoOperations.remove(Query.query(Criteria.where("_id").in(ids)), pathCollection);
+
+        releaseBlobs(files.stream().map(MongoPathMeta::getFileId).filter(Objects::nonNull).distinct().collect(Collectors.toList()));
     }
 
     @Override
     public void touchCreation(String path) {
-        touchPath(new NormalizedPath(path), meta -> meta.setCreationTime(Instant.now()));
+        touchPath(NormalizedPath.of(path), meta -> meta.setCreationTime(Instant.now()));
     }
 
     @Override
     public void touchLastModified(String path) {
-        touchPath(new NormalizedPath(path), meta -> meta.setLastModifiedTime(Instant.now()));
+        touchPath(NormalizedPath.of(path), meta -> meta.setLastModifiedTime(Instant.now()));
     }
 
     @Override
     public void touchLastAccess(String path) {
-        touchPath(new NormalizedPath(path), meta -> meta.setLastAccessTime(Instant.now()));
+        touchPath(NormalizedPath.of(path), meta -> meta.setLastAccessTime(Instant.now()));
     }
 
+    /**
+     * 不查询内联的文件内容。
+     */
     @Override
     public MongoPathMeta meta(String path) {
-        return queryPathMeta(new NormalizedPath(path));
+        return mongoOperations.findOne(withoutFileData(newPathQuery(NormalizedPath.of(path))), MongoPathMeta.class, pathCollection);
     }
 
+    /**
+     * 按父目录分组，每组以 {@code {parent, name: {$in}}} 查询，每批最多 {@link #BATCH_SIZE} 个路径。不查询内联的文件内容。
+     */
     @Override
-    public Stream<MongoPathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
-        NormalizedPath normalizePath = new NormalizedPath(path);
-        MongoPathMeta root = queryPathMeta(normalizePath);
-        if (null == root || !root.isDirectory()) throw new PathNotFoundException(path);
-
-        Stream<MongoPathMeta> stream = directories(root, search, recursive);
-
-        if (null != sort) {
-            stream = FileSystem.sort(stream, sort);
+    public Map<String, MongoPathMeta> metaAll(Collection<String> paths) {
+        Map<String, List<String>> namesByParent = new LinkedHashMap<>();
+        paths.stream().map(NormalizedPath::of).distinct().forEach(p -> namesByParent.computeIfAbsent(p.getParent(), parent -> new ArrayList<>()).add(p.getName()));
+
+        Map<String, MongoPathMeta> found = new HashMap<>();
+        List<Criteria> batch = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, List<String>> entry : namesByParent.entrySet()) {
+            batch.add(Criteria.where("parent").is(entry.getKey()).and("name").in(entry.getValue()));
+            size += entry.getValue().size();
+
+            if (size >= BATCH_SIZE) {
+                findPaths(batch, found);
+                batch.clear();
+                size = 0;
+            }
         }
 
-        if (offset > 0) {
-            stream = stream.skip(offset);
+        if (!batch.isEmpty()) {
+            findPaths(batch, found);
         }
 
-        if (limit > 0) {
-            stream = stream.limit(limit);
-        }
+        Map<String, MongoPathMeta> result = new LinkedHashMap<>();
+        paths.forEach(path -> result.put(path, found.get(NormalizedPath.of(path).toString())));
+        return result;
+    }
+
+    @Override
+    public Map<String, Boolean> existsAll(Collection<String> paths) {
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        metaAll(paths).forEach((path, meta) -> result.put(path, null != meta));
+        return result;
+    }
+
+    @Override
+    public Stream<MongoPathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        NormalizedPath normalizePath = NormalizedPath.of(path);
+        MongoPathMeta root = queryPathMeta(normalizePath);
+        if (null == root || !root.isDirectory()) throw new PathNotFoundException(path);
 
-        return stream;
+        return FileSystem.page(directories(root, search, recursive), offset, limit, sort);
     }
 
     @Override
     public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
-        NormalizedPath normalizePath = new NormalizedPath(path);
+        NormalizedPath normalizePath = NormalizedPath.of(path);
         MongoPathMeta root = queryPathMeta(normalizePath);
         if (null == root || !root.isDirectory()) throw new PathNotFoundException(path);
 
         Query query = new Query(Criteria.where("isDirectory").is(false));
         if (StringUtils.hasText(search)) {
-            query = query.addCriteria(Criteria.where("name").regex(".*" + search + ".*"));
+            query = query.addCriteria(Criteria.where("name").regex(".*" + escapeRegex(search) + ".*"));
         }
 
         if (null != sort) {
@@ -247,16 +399,102 @@ public class MongoDbFileSystem implements FileSystem {
             query = query.limit(limit);
         }
 
-        if (!recursive) {
-            Criteria criteria = Criteria.where("parent").is(root.getPath());
-            return iteratorToStream(mongoOperations.stream(query.addCriteria(criteria), MongoPathMeta.class, pathCollection));
+        query = query.addCriteria(recursive ? subtree(root.getPath()) : Criteria.where("parent").is(root.getPath()));
+
+        return iteratorToStream(mongoOperations.stream(withoutFileData(query), MongoPathMeta.class, pathCollection));
+    }
+
+    @Override
+    public Stream<MongoPathMeta> directoriesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return prefixStream(path, prefix, true);
+    }
+
+    @Override
+    public Stream<MongoPathMeta> filesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return prefixStream(path, prefix, false);
+    }
+
+    /**
+     * 优先使用change stream，mongodb不支持时（非副本集）回退到轮询。
+     */
+    @Override
+    public PathWatcher watch(String path, Consumer<PathEvent> listener) throws PathNotFoundException {
+        MongoPathMeta directory = meta(path);
+        if (null == directory || !directory.isDirectory()) throw new PathNotFoundException(path);
+
+        try {
+            return new ChangeStreamPathWatcher(mongoOperations.getCollection(pathCollection), NormalizedPath.of(path).toString(), listener);
+        }
+        catch (MongoException e) {
+            logger.info("mongodb不支持change stream，使用轮询订阅目录{}。", path);
+            return new PollingPathWatcher(this, path, listener);
+        }
+    }
+
+    /**
+     * 以 ^ 锚定的正则查找名称前缀，mongodb把它转换为parent+name索引上的范围扫描，而不是逐个匹配所有子路径。
+     */
+    private Stream<MongoPathMeta> prefixStream(String path, String prefix, boolean directory) throws PathNotFoundException {
+        MongoPathMeta root = queryPathMeta(NormalizedPath.of(path));
+        if (null == root || !root.isDirectory()) throw new PathNotFoundException(path);
+
+        Query query = Query.query(Criteria.where("parent").is(root.getPath()).and("isDirectory").is(directory));
+        if (StringUtils.hasText(prefix)) {
+            query = query.addCriteria(Criteria.where("name").regex("^" + escapeRegex(prefix)));
         }
 
-        List<String> directories = directories(root, "", true).map(PathMeta::getPath).collect(Collectors.toList());
-        directories.add(root.getPath());
-        query = query.addCriteria(Criteria.where("parent").in(directories));
+        return iteratorToStream(mongoOperations.stream(withoutFileData(query), MongoPathMeta.class, pathCollection));
+    }
+
+    /**
+     * 转义正则的元字符。不使用 {@code \Q...\E}，否则mongodb无法识别出前缀而不使用索引。
+     */
+    private String escapeRegex(String text) {
+        StringBuilder builder = new StringBuilder(text.length() * 2);
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if ("\\^$.|?*+()[]{}".indexOf(c) >= 0) {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
 
-        return iteratorToStream(mongoOperations.stream(query, MongoPathMeta.class, pathCollection));
+        return builder.toString();
+    }
+
+    /**
+     * 路径集合上的索引，已存在时mongodb直接返回：
+     * <ul>
+     * <li>parent+name唯一，按路径查找。</li>
+     * <li>parentId+name，复制时按目标目录查找。</li>
+     * <li>parent+isDirectory+name，列举目录时按类型过滤，并支持名称排序和前缀查找。</li>
+     * <li>fileId，释放GridFS文件前检查引用；GridFS文件的sha256，存入时查找相同内容。</li>
+     * </ul>
+     * 唯一索引在已有重复路径时无法创建，只记录警告，不影响启动。
+     */
+    private void ensureIndexes() {
+        IndexOperations indexOperations = mongoOperations.indexOps(pathCollection);
+
+        try {
+            indexOperations.ensureIndex(new Index().on("parent", Sort.Direction.ASC).on("name", Sort.Direction.ASC).unique());
+        }
+        catch (DataAccessException e) {
+            logger.warn("无法在{}上创建parent+name的唯一索引，请检查是否存在重复的路径。", pathCollection, e);
+        }
+
+        indexOperations.ensureIndex(new Index().on("parentId", Sort.Direction.ASC).on("name", Sort.Direction.ASC));
+        indexOperations.ensureIndex(new Index().on("parent", Sort.Direction.ASC).on("isDirectory", Sort.Direction.ASC).on("name", Sort.Direction.ASC));
+        indexOperations.ensureIndex(new Index().on("fileId", Sort.Direction.ASC).sparse());
+
+        gridFs.getFilesCollection().createIndex(new BasicDBObject(BLOB_HASH_FIELD, 1), new BasicDBObject("sparse", true));
+    }
+
+    /**
+     * 列举和查询元信息时不返回内联的文件内容，避免把大量小文件的内容读入内存。
+     */
+    private Query withoutFileData(Query query) {
+        query.fields().exclude(FILE_DATA_FIELD);
+        return query;
     }
 
     private <T> Stream<T> iteratorToStream(Iterator<T> iterator) {
@@ -268,7 +506,14 @@ public class MongoDbFileSystem implements FileSystem {
     }
 
     private Query newPathQuery(NormalizedPath normalizedPath) {
-        return Query.query(Criteria.where("name").is(normalizedPath.getName()).and("parent").is(normalizedPath.getParentPath()));
+        return Query.query(Criteria.where("name").is(normalizedPath.getName()).and("parent").is(normalizedPath.getParent()));
+    }
+
+    private void findPaths(List<Criteria> criteria, Map<String, MongoPathMeta> found) {
+        Criteria criterion = 1 == criteria.size() ? criteria.get(0) : new Criteria().orOperator(criteria.toArray(new Criteria[0]));
+
+        mongoOperations.find(withoutFileData(Query.query(criterion)), MongoPathMeta.class, pathCollection)
+            .forEach(meta -> found.put(NormalizedPath.of(meta.getParent() + PATH_SEPARATOR_STRING + meta.getName()).toString(), meta));
     }
 
     private MongoPathMeta queryPathMeta(NormalizedPath normalizedPath) {
@@ -287,14 +532,6 @@ public class MongoDbFileSystem implements FileSystem {
         return mongoOperations.findOne(query, MongoPathMeta.class, pathCollection);
     }
 
-    private CloseableIterator<MongoPathMeta> getPathsInDirectory(MongoPathMeta directory) {
-        return mongoOperations.stream(
-            Query.query(Criteria.where("parent").is(directory.getPath())),
-            MongoPathMeta.class,
-            pathCollection
-        );
-    }
-
     private void touchPath(NormalizedPath normalizedPath, Consumer<MongoPathMeta> consumer) {
         MongoPathMeta pathMeta = queryPathMeta(normalizedPath);
 
@@ -307,27 +544,25 @@ public class MongoDbFileSystem implements FileSystem {
         );
     }
 
-    private Stream<MongoPathMeta> directories(MongoPathMeta root, String search, boolean recursive) throws PathNotFoundException {
-        Query query = Query.query(Criteria.where("parent").is(root.getPath()).and("isDirectory").is(true));
+    private Stream<MongoPathMeta> directories(MongoPathMeta root, String search, boolean recursive) {
+        Query query = Query.query(Criteria.where("isDirectory").is(true));
         if (StringUtils.hasText(search)) {
-            query = query.addCriteria(Criteria.where("name").regex("*" + search + "*"));
+            query = query.addCriteria(Criteria.where("name").regex(".*" + escapeRegex(search) + ".*"));
         }
 
-        if (!mongoOperations.exists(query, pathCollection)) return Stream.empty();
+        query = query.addCriteria(recursive ? subtree(root.getPath()) : Criteria.where("parent").is(root.getPath()));
 
-        Stream<MongoPathMeta> stream = iteratorToStream(mongoOperations.stream(query, MongoPathMeta.class, pathCollection));
-        if (!recursive) return stream;
+        return iteratorToStream(mongoOperations.stream(withoutFileData(query), MongoPathMeta.class, pathCollection));
+    }
 
-        Stream<MongoPathMeta> subStream = stream.flatMap(d -> {
-            try {
-                return directories(d, search, true);
-            }
-            catch (PathNotFoundException e) {
-                throw new RuntimeException(e);
-            }
-        });
+    /**
+     * 目录下所有层级的子路径，不含目录本身。
+     * 每个路径的parent字段就是完整的祖先路径，所以整棵子树是parent上的一个前缀查询，可以使用parent开头的索引。
+     */
+    private Criteria subtree(String directory) {
+        if (PATH_SEPARATOR_STRING.equals(directory)) return Criteria.where("parent").regex("^" + escapeRegex(PATH_SEPARATOR_STRING));
 
-        return Stream.concat(stream, subStream);
+        return Criteria.where("parent").regex("^" + escapeRegex(directory) + "(" + escapeRegex(PATH_SEPARATOR_STRING) + "|$)");
     }
 
     private Query sort(Query query, PathMetaSort sort) {
@@ -366,6 +601,9 @@ public class MongoDbFileSystem implements FileSystem {
         }
     }
 
+    /**
+     * 并发创建同一个目录时，parent+name的唯一索引使其中一方插入失败，失败的一方改用已创建的目录。
+     */
     @SuppressWarnings("UnusedReturnValue")
     private MongoPathMeta createAndGetDirectory(NormalizedPath normalizedPath) {
         MongoPathMeta meta = queryPathMeta(normalizedPath);
@@ -376,16 +614,26 @@ public class MongoDbFileSystem implements FileSystem {
             return meta;
         }
 
-        createAndGetDirectory(normalizedPath.getParentPath());
         meta = new MongoPathMeta(normalizedPath, null);
-        mongoOperations.insert(meta, pathCollection);
+        if (!NormalizedPath.root.equals(normalizedPath)) {
+            meta.setParentId(createAndGetDirectory(normalizedPath.getParentPath()).getId());
+        }
+
+        try {
+            mongoOperations.insert(meta, pathCollection);
+        }
+        catch (DuplicateKeyException e) {
+            MongoPathMeta existing = queryPathMeta(normalizedPath);
+            if (null == existing) throw e;
+            if (!existing.isDirectory())
+                throw new RuntimeException(String.format("该路径%s指向一个已经存在的文件。", normalizedPath.getName()));
+
+            return existing;
+        }
 
         return meta;
     }
 
-    /**
-     * 务必保证fileId、fileData其中之一不为空，读取时会依赖这个假设。
-     */
     private void put(NormalizedPath normalizedPath, InputStream stream) throws InvalidFileException {
         MongoPathMeta file = queryPathMeta(normalizedPath);
         if (null == file) {
@@ -396,31 +644,250 @@ public class MongoDbFileSystem implements FileSystem {
         else if (file.isDirectory()) {
             throw new InvalidFileException(normalizedPath.toString());
         }
-        else {
-            file.setLastModifiedTime(Instant.now());
-            try {
-                file.setSize(stream.available());
+
+        ObjectId previousFileId = file.getFileId();
+        ObjectId pinnedFileId = storeFile(file, stream);
+
+        boolean written = false;
+        try {
+            //新文件没有id，以id为条件upsert会把所有新文件写到同一个文档上
+            if (null == file.getId()) {
+                try {
+                    mongoOperations.insert(file, pathCollection);
+                }
+                catch (DuplicateKeyException e) {
+                    //并发写入了同一个新文件，改为替换它
+                    MongoPathMeta existing = queryPathMeta(normalizedPath);
+                    if (null == existing) throw e;
+                    if (existing.isDirectory()) throw new InvalidFileException(normalizedPath.toString());
+
+                    file.setId(existing.getId());
+                    previousFileId = existing.getFileId();
+                    mongoOperations.updateFirst(newPathQuery(file), Update.fromDocument(new Document(file.toMap())), pathCollection);
+                }
             }
-            catch (IOException e) {
-                throw new RuntimeException(e);
+            else {
+                mongoOperations.updateFirst(newPathQuery(file), Update.fromDocument(new Document(file.toMap())), pathCollection);
             }
+
+            written = true;
         }
+        finally {
+            if (null != pinnedFileId) {
+                unpinBlob(pinnedFileId);
 
-        if (file.getSize() <= fileSizeThreshold) {
-            try {
-                file.setFileData(new Binary(StreamUtils.copyToByteArray(stream)));
-            }
-            catch (IOException e) {
-                throw new RuntimeException(e);
+                //没有路径文档引用新存入的GridFS文件
+                if (!written) {
+                    releaseBlob(pinnedFileId);
+                }
             }
         }
+
+        if (null != previousFileId && !previousFileId.equals(file.getFileId())) {
+            releaseBlob(previousFileId);
+        }
+    }
+
+    /**
+     * 把内容存入路径文档的fileData或者GridFS，尚未写入路径文档。
+     * 务必保证fileId、fileData其中之一不为空，读取时会依赖这个假设。
+     * <p>
+     * 先读取至多fileSizeThreshold + 1个字节：读到末尾则内联存储，否则把已读取的部分与剩余的流拼接后直接存入GridFS。
+     * 不依赖 {@link InputStream#available()} 判断大小，内存占用不超过阈值。
+     *
+     * @return 存入GridFS时返回被标记为待引用的文件id，调用方写入路径文档后须以 {@link #unpinBlob(ObjectId)} 撤销；内联存储时返回null。
+     */
+    private ObjectId storeFile(MongoPathMeta file, InputStream stream) {
+        if (null != file.getId()) {
+            file.setLastModifiedTime(Instant.now());
+        }
+
+        byte[] head;
+        try {
+            head = readAtMost(stream, fileSizeThreshold + 1);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (head.length <= fileSizeThreshold) {
+            file.setFileData(new Binary(head));
+            file.setFileId(null);
+            file.setSize(head.length);
+            file.setChecksum(checksum ? FileChecksum.of(head) : null);
+
+            return null;
+        }
         else {
-            ObjectId objectId = gridFsOperations.store(stream, file.getPath());
-            file.setFileId(objectId);
-            gridFsOperations.delete(Query.query(GridFsCriteria.whereFilename().is(file.getPath())).addCriteria(GridFsCriteria.where("_id").ne(objectId)));
+            Checksum sum = checksum ? FileChecksum.newChecksum() : null;
+            CountingInputStream counting = new CountingInputStream(new SequenceInputStream(new ByteArrayInputStream(head), stream));
+            file.setFileId(storeBlob(null == sum ? counting : new CheckedInputStream(counting, sum), file.getPath()));
+            file.setFileData(null);
+            file.setSize(counting.getCount());
+            file.setChecksum(null == sum ? null : FileChecksum.format(sum));
+
+            return file.getFileId();
+        }
+    }
+
+    /**
+     * 读取至多limit个字节，缓冲按实际读到的长度逐步扩大，而不是预先分配limit个字节。
+     */
+    private byte[] readAtMost(InputStream stream, int limit) throws IOException {
+        byte[] buffer = new byte[Math.min(limit, StreamUtils.BUFFER_SIZE)];
+        int length = 0;
+        while (length < limit) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(limit, buffer.length * 2L));
+            }
+
+            int n = stream.read(buffer, length, buffer.length - length);
+            if (n < 0) break;
+
+            length += n;
+        }
+
+        return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * 把流存入GridFS，内容与已有的文件相同时丢弃新存入的数据，返回已有文件的id。
+     * 内容以SHA-256标识，记录在GridFS文件的metadata.sha256中。
+     * <p>
+     * 查找与标记待引用是同一次原子操作，返回的文件在 {@link #unpinBlob(ObjectId)} 之前不会被 {@link #releaseBlobs(Collection)} 删除。
+     */
+    private ObjectId storeBlob(InputStream stream, String filename) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
         }
 
-        mongoOperations.upsert(newPathQuery(file), Update.fromDocument(new Document(file.toMap())), MongoPathMeta.class, pathCollection);
+        ObjectId objectId = gridFsOperations.store(new DigestInputStream(stream, digest), filename);
+        String hash = String.format("%064x", new BigInteger(1, digest.digest()));
+
+        DBCollection files = gridFs.getFilesCollection();
+        DBObject pin = new BasicDBObject("$inc", new BasicDBObject(BLOB_PENDING_FIELD, 1));
+
+        DBObject existing = files.findAndModify(new BasicDBObject(BLOB_HASH_FIELD, hash), null, null, false, pin, false, false);
+        if (null != existing) {
+            gridFs.remove(objectId);
+            return (ObjectId) existing.get("_id");
+        }
+
+        files.update(
+            new BasicDBObject("_id", objectId),
+            new BasicDBObject("$set", new BasicDBObject(BLOB_HASH_FIELD, hash)).append("$inc", new BasicDBObject(BLOB_PENDING_FIELD, 1))
+        );
+
+        return objectId;
+    }
+
+    /**
+     * 撤销 {@link #storeBlob(InputStream, String)} 的待引用标记，须在路径文档写入之后调用。
+     */
+    private void unpinBlob(ObjectId fileId) {
+        gridFs.getFilesCollection().update(
+            new BasicDBObject("_id", fileId),
+            new BasicDBObject("$inc", new BasicDBObject(BLOB_PENDING_FIELD, -1))
+        );
+    }
+
+    /**
+     * 复制路径时为源文件引用的GridFS文件标记待引用，调用方写入路径文档后须以 {@link #unpinBlob(ObjectId)} 撤销。
+     * <p>
+     * 标记与检查metadata.exclusive是同一次原子操作：{@link #releaseBlobs(Collection)}、{@link GridFsAppendStream}
+     * 都先增加metadata.exclusive再检查待引用标记，此后标记不会成功，不会引用正被删除或原地追加的文件。
+     * 标记失败时重新存入一份。
+     *
+     * @return 被标记的文件id，重新存入时是新文件的id。
+     */
+    private ObjectId pinOrCopyBlob(ObjectId fileId, String filename) {
+        DBCollection files = gridFs.getFilesCollection();
+
+        BasicDBObject pinnable = new BasicDBObject("_id", fileId)
+            .append(BLOB_EXCLUSIVE_FIELD, new BasicDBObject("$not", new BasicDBObject("$gt", 0)));
+        DBObject pin = new BasicDBObject("$inc", new BasicDBObject(BLOB_PENDING_FIELD, 1));
+        if (null != files.findAndModify(pinnable, new BasicDBObject("_id", 1), null, false, pin, false, false)) return fileId;
+
+        GridFSDBFile gridFSDBFile = gridFs.findOne(fileId);
+        if (null == gridFSDBFile) throw new RuntimeException(String.format("要复制的文件%s已被删除。", filename));
+
+        ObjectId copiedFileId;
+        try (InputStream inputStream = Channels.newInputStream(new GridFsChunkChannel(gridFs, gridFSDBFile, 0, -1))) {
+            copiedFileId = storeBlob(inputStream, filename);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        //GridFS先删除文件文档再删除分块，文件文档仍在说明读到的分块是完整的
+        if (null == files.findOne(new BasicDBObject("_id", fileId))) {
+            unpinBlob(copiedFileId);
+            releaseBlob(copiedFileId);
+            throw new RuntimeException(String.format("要复制的文件%s已被删除。", filename));
+        }
+
+        return copiedFileId;
+    }
+
+    private void releaseBlob(ObjectId fileId) {
+        releaseBlobs(Collections.singletonList(fileId));
+    }
+
+    /**
+     * GridFS文件可以被多个路径共享，没有路径再引用时才删除。每 {@link #BATCH_SIZE} 个一批：
+     * <ol>
+     * <li>移除sha256并增加metadata.exclusive，此后的 {@link #storeBlob(InputStream, String)}、{@link #pinOrCopyBlob(ObjectId, String)} 不会再引用它们。</li>
+     * <li>保留仍有待引用标记的文件：移除sha256之前找到它们的写入已经标记。</li>
+     * <li>保留仍被路径文档引用的文件：标记撤销前路径文档已经写入，标记已撤销的写入在这里可见。</li>
+     * <li>删除其余的文件，为保留的文件恢复sha256并撤销metadata.exclusive。</li>
+     * </ol>
+     */
+    private void releaseBlobs(Collection<ObjectId> fileIds) {
+        List<ObjectId> distinct = fileIds.stream().distinct().collect(Collectors.toList());
+        DBCollection files = gridFs.getFilesCollection();
+
+        for (int i = 0; i < distinct.size(); i += BATCH_SIZE) {
+            List<ObjectId> batch = distinct.subList(i, Math.min(i + BATCH_SIZE, distinct.size()));
+            BasicDBObject inBatch = new BasicDBObject("_id", new BasicDBObject("$in", batch));
+
+            Map<Object, Object> hashes = new HashMap<>();
+            for (DBObject blob : files.find(inBatch, new BasicDBObject(BLOB_HASH_FIELD, 1))) {
+                DBObject metadata = (DBObject) blob.get("metadata");
+                if (null != metadata && null != metadata.get("sha256")) {
+                    hashes.put(blob.get("_id"), metadata.get("sha256"));
+                }
+            }
+
+            files.updateMulti(inBatch, new BasicDBObject("$unset", new BasicDBObject(BLOB_HASH_FIELD, ""))
+                .append("$inc", new BasicDBObject(BLOB_EXCLUSIVE_FIELD, 1)));
+
+            Set<Object> kept = new HashSet<>();
+            BasicDBObject pending = new BasicDBObject("_id", new BasicDBObject("$in", batch)).append(BLOB_PENDING_FIELD, new BasicDBObject("$gt", 0));
+            for (DBObject blob : files.find(pending, new BasicDBObject("_id", 1))) {
+                kept.add(blob.get("_id"));
+            }
+
+            mongoOperations.getCollection(pathCollection)
+                .distinct("fileId", new Document("fileId", new Document("$in", batch)), ObjectId.class)
+                .into(kept);
+
+            for (ObjectId id : batch) {
+                if (!kept.contains(id)) {
+                    gridFs.remove(id);
+                    continue;
+                }
+
+                BasicDBObject update = new BasicDBObject("$inc", new BasicDBObject(BLOB_EXCLUSIVE_FIELD, -1));
+                if (hashes.containsKey(id)) {
+                    update.append("$set", new BasicDBObject(BLOB_HASH_FIELD, hashes.get(id)));
+                }
+                files.update(new BasicDBObject("_id", id), update);
+            }
+        }
     }
 
     private void delete(NormalizedPath normalizedPath) {
@@ -430,62 +897,378 @@ public class MongoDbFileSystem implements FileSystem {
         if (null == pathMeta) return;
 
         if (pathMeta.isDirectory()) {
-            delete(normalizedPath.getParentPath());
+            deleteTree(pathMeta);
         }
         else {
             mongoOperations.remove(query, pathCollection);
 
             if (null != pathMeta.getFileId()) {
-                gridFs.remove(pathMeta.getFileId());
+                releaseBlob(pathMeta.getFileId());
             }
         }
     }
 
+    /**
+     * 以一次查询找出子树引用的GridFS文件，一次删除子树及目录本身，再释放不再被引用的GridFS文件。
+     */
+    private void deleteTree(MongoPathMeta directory) {
+        Criteria subtree = subtree(directory.getPath());
+
+        //distinct的结果受16m的文档上限限制，子树很大时会失败，所以只投影fileId逐个读取
+        Query query = Query.query(subtree).addCriteria(Criteria.where("fileId").ne(null));
+        query.fields().include("fileId");
+
+        Set<ObjectId> fileIds = new HashSet<>();
+        try (CloseableIterator<MongoPathMeta> iterator = mongoOperations.stream(query, MongoPathMeta.class, pathCollection)) {
+            iterator.forEachRemaining(meta -> fileIds.add(meta.getFileId()));
+        }
+
+        Criteria criteria = NormalizedPath.root.equals(NormalizedPath.of(directory.getPath()))
+            ? subtree
+            : new Criteria().orOperator(subtree, Criteria.where("_id").is(directory.getId()));
+        mongoOperations.remove(Query.query(criteria), pathCollection);
+
+        releaseBlobs(fileIds);
+    }
+
     private void copyFileToDirectory(MongoPathMeta sourceFileMeta, MongoPathMeta directory, boolean replaceExisting) {
         MongoPathMeta existFile = queryPathMeta(sourceFileMeta.getName(), directory.getId());
+        if (null != existFile && !replaceExisting) return;
 
-        if (null != existFile) {
-            if (!replaceExisting) return;
+        //与源文件共享同一个GridFS文件，只复制路径文档
+        MongoPathMeta destFileMeta = sourceFileMeta.clone();
+        destFileMeta.setId(null == existFile ? null : existFile.getId());
+        destFileMeta.setParentId(directory.getId());
+        destFileMeta.setParent(directory.getPath());
 
-            MongoPathMeta destFileMeta = sourceFileMeta.clone();
-            destFileMeta.setParentId(directory.getId());
-            destFileMeta.setParent(directory.getPath());
+        ObjectId pinnedFileId = null == destFileMeta.getFileId() ? null : pinOrCopyBlob(destFileMeta.getFileId(), destFileMeta.getPath());
+        destFileMeta.setFileId(pinnedFileId);
 
-            if (null != existFile.getFileId()) {
-                gridFs.remove(existFile.getFileId());
+        boolean written = false;
+        try {
+            if (null == existFile) {
+                mongoOperations.insert(destFileMeta, pathCollection);
+            }
+            else {
+                mongoOperations.updateFirst(newPathQuery(destFileMeta), Update.fromDocument(new Document(destFileMeta.toMap())), pathCollection);
             }
 
-            mongoOperations.updateFirst(newPathQuery(destFileMeta), Update.fromDocument(new Document(destFileMeta.toMap())), pathCollection);
+            written = true;
         }
-        else {
-            MongoPathMeta destFileMeta = sourceFileMeta.clone();
-            destFileMeta.setParentId(directory.getId());
-            destFileMeta.setParent(directory.getPath());
+        finally {
+            if (null != pinnedFileId) {
+                unpinBlob(pinnedFileId);
 
-            if (null != destFileMeta.getFileId()) {
-                ObjectId fileId = gridFsOperations.store(
-                    gridFs.findOne(destFileMeta.getFileId()).getInputStream(),
-                    destFileMeta.getPath()
-                );
-                destFileMeta.setFileId(fileId);
+                if (!written) {
+                    releaseBlob(pinnedFileId);
+                }
             }
+        }
 
-            mongoOperations.insert(destFileMeta, pathCollection);
+        if (null != existFile && null != existFile.getFileId() && !existFile.getFileId().equals(destFileMeta.getFileId())) {
+            releaseBlob(existFile.getFileId());
         }
     }
 
+    /**
+     * 以一次查询按parent排序读出整棵子树，祖先目录总是排在其子路径之前；目标子树中已有的路径也只查询一次。
+     * 新目录预先分配id，子路径可以直接引用；路径文档的插入、替换以 {@link #BATCH_SIZE} 为一批写入。
+     * GridFS文件不复制，由新旧路径共享，见 {@link #pinOrCopyBlob(ObjectId, String)}；被替换的文件在全部写入后统一释放。
+     */
     private void copyFromDirectoryToDirectory(MongoPathMeta srcDirectory, MongoPathMeta destDirectory, boolean replaceExisting) {
-        CloseableIterator<MongoPathMeta> iterator = getPathsInDirectory(srcDirectory);
-        iterator.forEachRemaining(meta -> {
-            if (meta.isDirectory()) {
-                MongoPathMeta subDirectory = meta.clone();
-                subDirectory.setParent(destDirectory.getPath());
-                subDirectory.setParentId(destDirectory.getId());
-                copyFromDirectoryToDirectory(meta, subDirectory, replaceExisting);
+        String srcPath = srcDirectory.getPath();
+        String destPath = destDirectory.getPath();
+        if (PATH_SEPARATOR_STRING.equals(srcPath) || destPath.equals(srcPath) || destPath.startsWith(srcPath + PATH_SEPARATOR_STRING)) {
+            throw new RuntimeException(String.format("不能把目录%s复制到其自身或子目录%s中。", srcPath, destPath));
+        }
+
+        Map<String, MongoPathMeta> existing = new HashMap<>();
+        mongoOperations.find(withoutFileData(Query.query(subtree(destPath))), MongoPathMeta.class, pathCollection)
+            .forEach(meta -> existing.put(meta.getPath(), meta));
+
+        Map<String, MongoPathMeta> destDirectories = new HashMap<>();
+        destDirectories.put(destPath, destDirectory);
+
+        TreeWriter writer = new TreeWriter();
+        Query query = Query.query(subtree(srcPath)).with(Sort.by(Sort.Order.asc("parent")));
+        boolean written = false;
+        try (CloseableIterator<MongoPathMeta> iterator = mongoOperations.stream(query, MongoPathMeta.class, pathCollection)) {
+            iterator.forEachRemaining(meta -> {
+                String parent = NormalizedPath.of(destPath + PATH_SEPARATOR_STRING + meta.getParent().substring(srcPath.length())).toString();
+                MongoPathMeta directory = destDirectories.get(parent);
+                String path = NormalizedPath.of(parent + PATH_SEPARATOR_STRING + meta.getName()).toString();
+                MongoPathMeta target = existing.get(path);
+
+                if (meta.isDirectory()) {
+                    if (null == target) {
+                        target = new MongoPathMeta(NormalizedPath.of(path));
+                        target.setId(new ObjectId().toHexString());
+                        target.setParentId(directory.getId());
+                        writer.insert(target);
+                    }
+                    else if (!target.isDirectory()) {
+                        throw new RuntimeException(String.format("该路径%s指向一个已经存在的文件。", path));
+                    }
+
+                    destDirectories.put(path, target);
+                    return;
+                }
+
+                if (null != target && (target.isDirectory() || !replaceExisting)) return;
+
+                MongoPathMeta destFileMeta = meta.clone();
+                destFileMeta.setId(null == target ? null : target.getId());
+                destFileMeta.setParentId(directory.getId());
+                destFileMeta.setParent(parent);
+                if (null != destFileMeta.getFileId()) {
+                    destFileMeta.setFileId(writer.pin(pinOrCopyBlob(destFileMeta.getFileId(), path)));
+                }
+
+                if (null == target) {
+                    writer.insert(destFileMeta);
+                }
+                else {
+                    writer.replace(destFileMeta);
+
+                    if (null != target.getFileId() && !target.getFileId().equals(destFileMeta.getFileId())) {
+                        writer.release(target.getFileId());
+                    }
+                }
+            });
+
+            writer.flush();
+            written = true;
+        }
+        finally {
+            if (!written) {
+                writer.abort();
+            }
+        }
+
+        releaseBlobs(writer.released);
+    }
+
+    /**
+     * 把路径文档的写入攒成批量操作，满 {@link #BATCH_SIZE} 个时执行一次，执行后撤销这一批的待引用标记。
+     */
+    private class TreeWriter {
+        private BulkOperations bulkOperations;
+        private int count;
+        private List<ObjectId> pinned = new ArrayList<>();
+        private List<ObjectId> released = new ArrayList<>();
+
+        /**
+         * 记录被标记为待引用的文件，须在引用它的路径文档加入批量操作之前调用。
+         */
+        ObjectId pin(ObjectId fileId) {
+            pinned.add(fileId);
+            return fileId;
+        }
+
+        void insert(MongoPathMeta meta) {
+            operations().insert(meta);
+            added();
+        }
+
+        void replace(MongoPathMeta meta) {
+            operations().updateOne(newPathQuery(meta), Update.fromDocument(new Document(meta.toMap())));
+            added();
+        }
+
+        void release(ObjectId fileId) {
+            released.add(fileId);
+        }
+
+        void flush() {
+            if (0 == count) return;
+
+            bulkOperations.execute();
+            bulkOperations = null;
+            count = 0;
+
+            pinned.forEach(MongoDbFileSystem.this::unpinBlob);
+            pinned.clear();
+        }
+
+        /**
+         * 写入失败时撤销尚未执行的待引用标记，没有路径文档引用的文件随之释放。
+         */
+        void abort() {
+            pinned.forEach(MongoDbFileSystem.this::unpinBlob);
+            releaseBlobs(pinned);
+        }
+
+        private BulkOperations operations() {
+            if (null == bulkOperations) {
+                bulkOperations = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, MongoPathMeta.class, pathCollection);
+            }
+
+            return bulkOperations;
+        }
+
+        private void added() {
+            if (++count >= BATCH_SIZE) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * 追加写入的输出流，关闭时更新路径文档的大小、修改时间，追加后不再有校验和。
+     * <ul>
+     * <li>GridFS文件由 {@link GridFsAppendStream} 只写入新的分块。</li>
+     * <li>GridFS文件被其他路径共享时不能原地修改，复制为新的GridFS文件后再追加。
+     * 共享与否在 {@link GridFsAppendStream} 移除sha256、增加metadata.exclusive之后检查，与 {@link #releaseBlobs(Collection)} 的理由相同。</li>
+     * <li>内联的内容在内存中追加，超过阈值时转存为新的GridFS文件。</li>
+     * </ul>
+     */
+    private class AppendStream extends OutputStream {
+        private MongoPathMeta file;
+        private ObjectId previousFileId;
+        private ByteArrayOutputStream inline;
+        private OutputStream blob;
+        private GridFSInputFile promoted;
+        private long size;
+        private boolean closed;
+
+        AppendStream(MongoPathMeta file, GridFSDBFile gridFSDBFile) {
+            this.file = file;
+            this.previousFileId = file.getFileId();
+
+            if (null == gridFSDBFile) {
+                byte[] data = null == file.getFileData() ? new byte[0] : file.getFileData().getData();
+                this.inline = new ByteArrayOutputStream(data.length);
+                this.inline.write(data, 0, data.length);
+                this.size = data.length;
             }
             else {
-                copyFileToDirectory(meta, destDirectory, replaceExisting);
+                GridFsAppendStream appending = new GridFsAppendStream(gridFs, gridFSDBFile);
+                if (isShared(appending.getPreviousMetadata())) {
+                    appending.abandon();
+
+                    promote();
+                    try (InputStream inputStream = Channels.newInputStream(new GridFsChunkChannel(gridFs, gridFSDBFile, 0, -1))) {
+                        StreamUtils.copy(inputStream, blob);
+                    }
+                    catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                else {
+                    this.blob = appending;
+                }
+
+                this.size = gridFSDBFile.getLength();
             }
-        });
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("流已关闭");
+
+            if (null != inline && size + len > fileSizeThreshold) {
+                byte[] data = inline.toByteArray();
+                inline = null;
+                promote();
+                blob.write(data);
+            }
+
+            if (null != inline) {
+                inline.write(b, off, len);
+            }
+            else {
+                blob.write(b, off, len);
+            }
+
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+
+            if (null != blob) {
+                blob.close();
+            }
+
+            if (null != inline) {
+                file.setFileData(new Binary(inline.toByteArray()));
+                file.setFileId(null);
+            }
+            else if (null != promoted) {
+                file.setFileId((ObjectId) promoted.getId());
+                file.setFileData(null);
+            }
+
+            file.setSize(size);
+            file.setLastModifiedTime(Instant.now());
+            file.setChecksum(null);
+
+            mongoOperations.updateFirst(newPathQuery(file), Update.fromDocument(new Document(file.toMap())), pathCollection);
+
+            if (null != promoted && null != previousFileId) {
+                releaseBlob(previousFileId);
+            }
+        }
+
+        private void promote() {
+            promoted = gridFs.createFile(file.getPath());
+            blob = promoted.getOutputStream();
+        }
+
+        /**
+         * 有写入已找到该文件而尚未写入路径文档，或者有其他路径引用它。
+         */
+        private boolean isShared(DBObject metadata) {
+            Object pending = null == metadata ? null : metadata.get("pending");
+            if (pending instanceof Number && ((Number) pending).intValue() > 0) return true;
+
+            return mongoOperations.count(Query.query(Criteria.where("fileId").is(previousFileId)), pathCollection) > 1;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                ++count;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return count;
+        }
     }
 }
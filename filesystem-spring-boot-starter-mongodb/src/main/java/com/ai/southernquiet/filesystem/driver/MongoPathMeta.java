@@ -15,7 +15,7 @@ public class MongoPathMeta extends PathMeta implements Cloneable {
     }
 
     public MongoPathMeta(String path, InputStream stream) {
-        super(new NormalizedPath(path), stream);
+        super(NormalizedPath.of(path), stream);
     }
 
     public MongoPathMeta(NormalizedPath normalizedPath) {
@@ -23,7 +23,7 @@ public class MongoPathMeta extends PathMeta implements Cloneable {
     }
 
     public MongoPathMeta(String path) {
-        super(new NormalizedPath(path), null);
+        super(NormalizedPath.of(path), null);
     }
 
     @Override
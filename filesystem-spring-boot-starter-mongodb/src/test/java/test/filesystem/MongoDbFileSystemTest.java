@@ -1,11 +1,48 @@
 package test.filesystem;
 
+import com.ai.southernquiet.filesystem.FileSystemException;
+import com.ai.southernquiet.filesystem.InvalidFileException;
+import com.ai.southernquiet.filesystem.MongoDbFileSystemAutoConfiguration;
+import com.ai.southernquiet.filesystem.PathEvent;
+import com.ai.southernquiet.filesystem.PathMeta;
+import com.ai.southernquiet.filesystem.PathWatcher;
+import com.ai.southernquiet.filesystem.driver.MongoDbFileSystem;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.gridfs.GridFS;
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
 
 @SpringBootTest
 @RunWith(SpringRunner.class)
@@ -14,4 +51,310 @@ public class MongoDbFileSystemTest extends FileSystemTest {
     @EnableAutoConfiguration
     @ComponentScan({"com.ai.southernquiet.filesystem"})
     public static class Config {}
+
+    @Autowired
+    private MongoOperations mongoOperations;
+    @Autowired
+    private GridFsOperations gridFsOperations;
+    @Autowired
+    private GridFS gridFS;
+
+    @Test
+    public void dedup() {
+        MongoDbFileSystem fileSystem = newFileSystem(16);
+        String content = "超过阈值的内容存入GridFS，相同的内容只存一份。";
+
+        try {
+            fileSystem.put("dedup/a.txt", content);
+            fileSystem.put("dedup/b.txt", content);
+
+            ObjectId fileId = fileSystem.meta("dedup/a.txt").getFileId();
+            Assert.assertNotNull(fileId);
+            Assert.assertEquals(fileId, fileSystem.meta("dedup/b.txt").getFileId());
+
+            fileSystem.delete("dedup/a.txt");
+            Assert.assertNotNull(gridFS.findOne(fileId));
+            Assert.assertEquals(content, fileSystem.read("dedup/b.txt"));
+
+            fileSystem.delete("dedup");
+            Assert.assertNull(gridFS.findOne(fileId));
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 顶层目录的子孙路径以"/"为parent，曾被拼成"//name"。
+     */
+    @Test
+    public void recursiveTopLevel() {
+        MongoDbFileSystem fileSystem = newFileSystem(16);
+
+        try {
+            fileSystem.put("recursive/a.txt", "a");
+            fileSystem.put("recursive/b/c.txt", "c");
+            fileSystem.createDirectory("recursive/b/d");
+
+            Assert.assertEquals(
+                Arrays.asList("/recursive/a.txt", "/recursive/b/c.txt"),
+                fileSystem.files("recursive", "", true).map(PathMeta::getPath).sorted().collect(Collectors.toList())
+            );
+            Assert.assertEquals(
+                Arrays.asList("/recursive/b", "/recursive/b/d"),
+                fileSystem.directories("recursive", "", true).map(PathMeta::getPath).sorted().collect(Collectors.toList())
+            );
+        }
+        catch (FileSystemException e) {
+            throw new RuntimeException(e);
+        }
+
+        fileSystem.delete("recursive");
+    }
+
+    /**
+     * 共享的GridFS文件复制后再追加；独占的文件原地追加，跨越分块边界，并且不再能按内容被共享。
+     */
+    @Test
+    public void appendAcrossChunks() throws IOException {
+        MongoDbFileSystem fileSystem = newFileSystem(16);
+
+        byte[] head = new byte[GridFS.DEFAULT_CHUNKSIZE - 10];
+        Arrays.fill(head, (byte) 'a');
+        byte[] tail = new byte[100];
+        Arrays.fill(tail, (byte) 'b');
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(head);
+        expected.write(tail);
+
+        try {
+            fileSystem.put("append/a.bin", new ByteArrayInputStream(head));
+            fileSystem.put("append/b.bin", new ByteArrayInputStream(head));
+            ObjectId fileId = fileSystem.meta("append/a.bin").getFileId();
+
+            try (OutputStream outputStream = fileSystem.openWriteStream("append/b.bin")) {
+                outputStream.write(tail);
+            }
+            Assert.assertNotEquals(fileId, fileSystem.meta("append/b.bin").getFileId());
+            try (InputStream inputStream = fileSystem.openReadStream("append/b.bin")) {
+                Assert.assertArrayEquals(expected.toByteArray(), StreamUtils.copyToByteArray(inputStream));
+            }
+
+            try (OutputStream outputStream = fileSystem.openWriteStream("append/a.bin")) {
+                outputStream.write(tail);
+            }
+            Assert.assertEquals(fileId, fileSystem.meta("append/a.bin").getFileId());
+            Assert.assertEquals(expected.size(), fileSystem.meta("append/a.bin").getSize());
+            try (InputStream inputStream = fileSystem.openReadStream("append/a.bin")) {
+                Assert.assertArrayEquals(expected.toByteArray(), StreamUtils.copyToByteArray(inputStream));
+            }
+
+            DBObject metadata = gridFS.findOne(fileId).getMetaData();
+            Assert.assertTrue(null == metadata || null == metadata.get("sha256"));
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+
+        fileSystem.delete("append");
+    }
+
+    /**
+     * 网络流的available()常为0，超过阈值的内容不能因此被当作空内容内联存储。
+     */
+    @Test
+    public void putWithoutAvailable() {
+        MongoDbFileSystem fileSystem = newFileSystem(16);
+        String content = "available()返回0的流，内容仍超过阈值。";
+
+        InputStream stream = new FilterInputStream(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))) {
+            @Override
+            public int available() {
+                return 0;
+            }
+        };
+
+        try {
+            fileSystem.put("available/a.txt", stream);
+
+            Assert.assertNotNull(fileSystem.meta("available/a.txt").getFileId());
+            Assert.assertEquals(content, fileSystem.read("available/a.txt"));
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+
+        fileSystem.delete("available");
+    }
+
+    /**
+     * 目录复制到已有的目录树上，被替换的GridFS文件不再被引用，应被释放。
+     */
+    @Test
+    public void copyDirectoryReplaceExisting() {
+        MongoDbFileSystem fileSystem = newFileSystem(16);
+
+        try {
+            fileSystem.put("copy/src/a.txt", "源目录中超过阈值的文件a");
+            fileSystem.put("copy/src/sub/b.txt", "源目录中超过阈值的文件b");
+            fileSystem.put("copy/dest/a.txt", "将被替换的超过阈值的文件a");
+            fileSystem.put("copy/dest/sub/b.txt", "将被替换的超过阈值的文件b");
+
+            ObjectId replacedA = fileSystem.meta("copy/dest/a.txt").getFileId();
+            ObjectId replacedB = fileSystem.meta("copy/dest/sub/b.txt").getFileId();
+            Assert.assertNotNull(replacedA);
+            Assert.assertNotNull(replacedB);
+
+            fileSystem.copy("copy/src", "copy/dest", true);
+
+            Assert.assertEquals("源目录中超过阈值的文件a", fileSystem.read("copy/dest/a.txt"));
+            Assert.assertEquals("源目录中超过阈值的文件b", fileSystem.read("copy/dest/sub/b.txt"));
+            Assert.assertEquals(fileSystem.meta("copy/src/a.txt").getFileId(), fileSystem.meta("copy/dest/a.txt").getFileId());
+
+            Assert.assertNull(gridFS.findOne(replacedA));
+            Assert.assertNull(gridFS.findOne(replacedB));
+        }
+        catch (FileSystemException e) {
+            throw new RuntimeException(e);
+        }
+
+        fileSystem.delete("copy");
+    }
+
+    /**
+     * 批量写入中途失败时，已存入GridFS的内容须撤销待引用标记并释放。
+     */
+    @Test
+    public void putAllFailure() {
+        MongoDbFileSystem fileSystem = newFileSystem(16);
+        fileSystem.createDirectory("put_all/dir");
+
+        Map<String, InputStream> files = new LinkedHashMap<>();
+        files.put("put_all/a.txt", new ByteArrayInputStream("超过阈值的内容，随后的写入失败。".getBytes(StandardCharsets.UTF_8)));
+        files.put("put_all/dir", new ByteArrayInputStream("目录不能被当作文件写入。".getBytes(StandardCharsets.UTF_8)));
+
+        try {
+            fileSystem.putAll(files);
+            Assert.fail();
+        }
+        catch (InvalidFileException e) {
+            Assert.assertTrue(gridFS.find("/put_all/a.txt").isEmpty());
+        }
+
+        fileSystem.delete("put_all");
+    }
+
+    /**
+     * 复制时引用源文件的GridFS文件，写入后撤销待引用标记；追加过的文件关闭后同样可以被共享。
+     */
+    @Test
+    public void copyPinsBlob() throws IOException {
+        MongoDbFileSystem fileSystem = newFileSystem(16);
+
+        try {
+            fileSystem.put("copy_pin/a.txt", "超过阈值的内容，复制时共享。");
+            try (OutputStream outputStream = fileSystem.openWriteStream("copy_pin/a.txt")) {
+                outputStream.write("追加".getBytes(StandardCharsets.UTF_8));
+            }
+
+            fileSystem.copy("copy_pin/a.txt", "copy_pin/dest");
+
+            ObjectId fileId = fileSystem.meta("copy_pin/a.txt").getFileId();
+            Assert.assertEquals(fileId, fileSystem.meta("copy_pin/dest/a.txt").getFileId());
+            Assert.assertEquals("超过阈值的内容，复制时共享。追加", fileSystem.read("copy_pin/dest/a.txt"));
+
+            DBObject metadata = gridFS.findOne(fileId).getMetaData();
+            Assert.assertEquals(0, ((Number) metadata.get("pending")).intValue());
+            Assert.assertEquals(0, ((Number) metadata.get("exclusive")).intValue());
+        }
+        catch (FileSystemException e) {
+            throw new RuntimeException(e);
+        }
+
+        fileSystem.delete("copy_pin");
+    }
+
+    @Test
+    public void ensureIndexes() {
+        newFileSystem(16);
+
+        Assert.assertTrue(mongoOperations.indexOps("PATH_SMALL_THRESHOLD").getIndexInfo().stream().anyMatch(index ->
+            index.isUnique() && Arrays.asList("parent", "name").equals(index.getIndexFields().stream().map(IndexField::getKey).collect(Collectors.toList()))
+        ));
+    }
+
+    /**
+     * 并发写入同一个新目录、同一个新文件时，唯一索引使其中一方插入失败，失败的一方改用已写入的路径。
+     */
+    @Test
+    public void concurrentPut() throws Exception {
+        MongoDbFileSystem fileSystem = newFileSystem(16);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+                String content = "并发写入超过阈值的内容" + i;
+                futures.add(executor.submit(() -> {
+                    fileSystem.put("concurrent/dir/" + content + ".txt", content);
+                    fileSystem.put("concurrent/dir/same.txt", content);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            Assert.assertEquals(9, fileSystem.files("concurrent/dir").count());
+            Assert.assertEquals(1, fileSystem.directories("concurrent").count());
+            Assert.assertTrue(fileSystem.read("concurrent/dir/same.txt").startsWith("并发写入超过阈值的内容"));
+            Assert.assertTrue(gridFS.getFileList(
+                new BasicDBObject("filename", new BasicDBObject("$regex", "^/concurrent/")).append("metadata.pending", new BasicDBObject("$gt", 0))
+            ).isEmpty());
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        fileSystem.delete("concurrent");
+    }
+
+    /**
+     * 副本集上使用change stream，否则回退到轮询；其他目录下的删除不会被通知。
+     */
+    @Test
+    public void watchDirectory() throws Exception {
+        MongoDbFileSystem fileSystem = newFileSystem(16);
+        fileSystem.delete("watch");
+        fileSystem.createDirectory("watch/dir");
+        fileSystem.put("watch/other.txt", "other");
+
+        BlockingQueue<PathEvent> events = new LinkedBlockingQueue<>();
+        try (PathWatcher ignored = fileSystem.watch("watch/dir", events::add)) {
+            fileSystem.put("watch/dir/a.txt", "a");
+            awaitEvent(events, PathEvent.Kind.Created, "/watch/dir/a.txt");
+
+            fileSystem.put("watch/dir/a.txt", "超过阈值的内容存入GridFS");
+            awaitEvent(events, PathEvent.Kind.Modified, "/watch/dir/a.txt");
+
+            fileSystem.delete("watch/other.txt");
+            fileSystem.delete("watch/dir/a.txt");
+            awaitEvent(events, PathEvent.Kind.Deleted, "/watch/dir/a.txt");
+            Assert.assertTrue(events.stream().noneMatch(event -> event.getPath().contains("other")));
+        }
+
+        fileSystem.delete("watch");
+    }
+
+    /**
+     * 使用独立的路径集合和较小的阈值，使少量内容也会存入GridFS。
+     */
+    private MongoDbFileSystem newFileSystem(int fileSizeThreshold) {
+        MongoDbFileSystemAutoConfiguration.Properties properties = new MongoDbFileSystemAutoConfiguration.Properties();
+        properties.setPathCollection("PATH_SMALL_THRESHOLD");
+        properties.setFileSizeThreshold(fileSizeThreshold);
+
+        return new MongoDbFileSystem(properties, mongoOperations, gridFsOperations, gridFS);
+    }
 }
@@ -0,0 +1,92 @@
+package benchmark;
+
+import com.ai.southernquiet.filesystem.NormalizedPath;
+import org.springframework.util.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.ai.southernquiet.filesystem.FileSystem.PATH_SEPARATOR_STRING;
+
+/**
+ * {@link NormalizedPath} 的解析及字符串化开销。以 {@code gradle :framework:jmh} 运行，默认带 {@code -prof gc}，
+ * 比较结果中的 {@code gc.alloc.rate.norm}（每次调用分配的字节数）。以 {@code baseline} 开头的是改写前的解析，作为对照。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NormalizedPathBenchmark {
+    private String canonical = "/key_value/3c/6e/session_|_1800";
+    private String messy = "key_value\\3c//6e/session_|_1800/";
+
+    @Setup
+    public void setup() {
+        NormalizedPath.setInternCapacity(1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        NormalizedPath.setInternCapacity(0);
+    }
+
+    @Benchmark
+    public NormalizedPath parseCanonical() {
+        return new NormalizedPath(canonical);
+    }
+
+    @Benchmark
+    public NormalizedPath parseMessy() {
+        return new NormalizedPath(messy);
+    }
+
+    @Benchmark
+    public NormalizedPath baselineParseCanonical() {
+        return baselineParse(canonical);
+    }
+
+    @Benchmark
+    public NormalizedPath baselineParseMessy() {
+        return baselineParse(messy);
+    }
+
+    @Benchmark
+    public NormalizedPath interned() {
+        return NormalizedPath.of(canonical);
+    }
+
+    @Benchmark
+    public int toStringAndHash() {
+        NormalizedPath path = new NormalizedPath(messy);
+        return path.toString().length() + path.hashCode() + path.getParent().length();
+    }
+
+    /**
+     * 改写前 {@link NormalizedPath#NormalizedPath(String)} 的解析：replace、split后经Stream过滤，再由数组构造复制出父级名称。
+     */
+    private static NormalizedPath baselineParse(String path) {
+        if (!StringUtils.hasText(path)) return new NormalizedPath(new String[0]);
+        if ("".equalsIgnoreCase(path)) return new NormalizedPath(new String[0]);
+
+        String p = path.replace("\\", PATH_SEPARATOR_STRING);
+
+        String[] pathElements = Stream.of(p.split(PATH_SEPARATOR_STRING))
+            .filter(item -> StringUtils.hasText(item))
+            .toArray(String[]::new);
+
+        return new NormalizedPath(pathElements);
+    }
+}
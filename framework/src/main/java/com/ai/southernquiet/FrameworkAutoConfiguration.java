@@ -1,24 +1,60 @@
 package com.ai.southernquiet;
 
+import com.ai.southernquiet.filesystem.CompressedFileSystem;
+import com.ai.southernquiet.filesystem.ContentCachedFileSystem;
 import com.ai.southernquiet.filesystem.FileSystem;
 import com.ai.southernquiet.filesystem.FileSystemSupport;
+import com.ai.southernquiet.filesystem.MetaCachedFileSystem;
+import com.ai.southernquiet.filesystem.NormalizedPath;
+import com.ai.southernquiet.filesystem.PollingPathWatcher;
+import com.ai.southernquiet.filesystem.ReactiveFileSystem;
+import com.ai.southernquiet.filesystem.ReactiveFileSystemAdapter;
 import com.ai.southernquiet.filesystem.driver.LocalFileSystem;
+import com.ai.southernquiet.filesystem.driver.LocalReactiveFileSystem;
+import com.ai.southernquiet.filesystem.driver.ShardedLocalFileSystem;
 import com.ai.southernquiet.keyvalue.KeyValueStore;
 import com.ai.southernquiet.keyvalue.driver.FileSystemKeyValueStore;
 import com.ai.southernquiet.util.AsyncRunner;
 import com.ai.southernquiet.util.Metadata;
+import org.springframework.boot.autoconfigure.condition.AnyNestedCondition;
+import org.springframework.boot.autoconfigure.condition.ConditionOutcome;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.SpringBootCondition;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.ConditionContext;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.StringUtils;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import static com.ai.southernquiet.event.EventPublisher.DefaultEventChannel;
@@ -34,12 +70,160 @@ public class FrameworkAutoConfiguration {
         return new FileSystemKeyValueStore(properties.getFileSystem(), fileSystem);
     }
 
+    @Bean
+    @Conditional(ShardedCondition.class)
+    @ConditionalOnMissingBean(FileSystem.class)
+    public ShardedLocalFileSystem shardedFileSystem(LocalFileSystemProperties properties) {
+        return new ShardedLocalFileSystem(properties);
+    }
+
     @Bean
     @ConditionalOnMissingBean(FileSystem.class)
     public LocalFileSystem fileSystem(LocalFileSystemProperties properties) {
         return new LocalFileSystem(properties);
     }
 
+    /**
+     * 按配置用 {@link MetaCachedFileSystem}、{@link ContentCachedFileSystem}、{@link CompressedFileSystem} 依次包装当前生效的FileSystem驱动，无论它由哪个模块提供。
+     * 压缩在最外层，缓存的是压缩后的内容。
+     * <p>
+     * 驱动本身仍以原来的类型注册，按具体类型注入的地方不受影响；按FileSystem注入的地方得到包装后的实例。
+     */
+    @Bean
+    @Primary
+    @Conditional(FileSystemDecoratorCondition.class)
+    public FileSystem decoratedFileSystem(FileSystem driver, FileSystemProperties properties) {
+        FileSystem fileSystem = driver;
+
+        FileSystemProperties.MetaCache metaCache = properties.getMetaCache();
+        if (metaCache.isEnable()) {
+            fileSystem = new MetaCachedFileSystem(fileSystem, metaCache.getCapacity(), metaCache.getTtl());
+        }
+
+        FileSystemProperties.ContentCache contentCache = properties.getContentCache();
+        if (contentCache.isEnable()) {
+            FileSystem diskTier = contentCache.getDiskCapacity() > 0 ? createDiskTier(contentCache) : null;
+
+            fileSystem = new ContentCachedFileSystem(
+                fileSystem,
+                diskTier,
+                contentCache.getMemoryFileSizeThreshold(),
+                contentCache.getMemoryCapacity(),
+                contentCache.getDiskFileSizeThreshold(),
+                contentCache.getDiskCapacity()
+            );
+        }
+
+        FileSystemProperties.Compression compression = properties.getCompression();
+        if (compression.isEnable()) {
+            fileSystem = new CompressedFileSystem(
+                fileSystem,
+                compression.getFileSizeThreshold(),
+                compression.getLevel(),
+                compression.getPathPrefixes(),
+                compression.getExcludedExtensions()
+            );
+        }
+
+        return fileSystem;
+    }
+
+    /**
+     * 磁盘缓存的索引只在内存中，每个实例在diskWorkingRoot下使用独立的新目录，进程退出时删除。
+     */
+    private static FileSystem createDiskTier(FileSystemProperties.ContentCache contentCache) {
+        Path root;
+        try {
+            Path parent = StringUtils.hasText(contentCache.getDiskWorkingRoot())
+                ? Paths.get(contentCache.getDiskWorkingRoot())
+                : Paths.get(System.getProperty("java.io.tmpdir"));
+
+            root = Files.createTempDirectory(Files.createDirectories(parent), "sq_filesystem_cache_");
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        LocalFileSystemProperties diskProperties = new LocalFileSystemProperties();
+        diskProperties.setWorkingRoot(root.toString());
+        LocalFileSystem diskTier = new LocalFileSystem(diskProperties);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            diskTier.delete(FileSystem.PATH_SEPARATOR_STRING);
+
+            try {
+                Files.deleteIfExists(root);
+            }
+            catch (IOException ignored) {
+            }
+        }, "sq-content-cache-cleaner"));
+
+        return diskTier;
+    }
+
+    /**
+     * 配置了多个工作目录时使用 {@link ShardedLocalFileSystem}。
+     */
+    static class ShardedCondition extends SpringBootCondition {
+        @Override
+        public ConditionOutcome getMatchOutcome(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            List<String> workingRoots = Binder.get(context.getEnvironment())
+                .bind("southern-quiet.framework.file-system.local.working-roots", Bindable.listOf(String.class))
+                .orElse(Collections.emptyList());
+
+            return workingRoots.isEmpty() ? ConditionOutcome.noMatch("未配置working-roots") : ConditionOutcome.match();
+        }
+    }
+
+    /**
+     * 至少启用了一个FileSystem装饰器。
+     */
+    static class FileSystemDecoratorCondition extends AnyNestedCondition {
+        FileSystemDecoratorCondition() {
+            super(ConfigurationPhase.REGISTER_BEAN);
+        }
+
+        @ConditionalOnProperty(value = "enable", prefix = "southern-quiet.framework.file-system.meta-cache")
+        static class MetaCacheEnabled {
+        }
+
+        @ConditionalOnProperty(value = "enable", prefix = "southern-quiet.framework.file-system.content-cache")
+        static class ContentCacheEnabled {
+        }
+
+        @ConditionalOnProperty(value = "enable", prefix = "southern-quiet.framework.file-system.compression")
+        static class CompressionEnabled {
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "reactor.core.publisher.Flux")
+    public static class ReactiveFileSystemConfiguration {
+        @Bean
+        @ConditionalOnMissingBean(ReactiveFileSystem.class)
+        public ReactiveFileSystem reactiveFileSystem(FileSystem fileSystem, FileSystemProperties properties) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sq-reactive-fs-");
+            threadFactory.setDaemon(true);
+
+            Scheduler scheduler = Schedulers.fromExecutorService(new ThreadPoolExecutor(
+                properties.getReactiveSchedulerSize(),
+                properties.getReactiveSchedulerSize(),
+                60,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(properties.getReactiveSchedulerQueueSize()),
+                threadFactory
+            ));
+
+            DataBufferFactory dataBufferFactory = new DefaultDataBufferFactory();
+
+            if (fileSystem instanceof LocalFileSystem) {
+                return new LocalReactiveFileSystem((LocalFileSystem) fileSystem, scheduler, dataBufferFactory, properties.getReactiveBufferSize());
+            }
+
+            return new ReactiveFileSystemAdapter(fileSystem, scheduler, dataBufferFactory, properties.getReactiveBufferSize());
+        }
+    }
+
     @Bean
     @ConditionalOnMissingBean
     public Metadata metadata(Properties properties) {
@@ -135,6 +319,54 @@ public class FrameworkAutoConfiguration {
          * FileSystem中合法文件名的正则表达式
          */
         private String nameRegex;
+        /**
+         * 驱动没有原生的变化通知时，FileSystem.watch轮询目录的间隔
+         */
+        private Duration watchPollingInterval = PollingPathWatcher.getDefaultInterval();
+        /**
+         * ReactiveFileSystem执行阻塞调用的线程数上限
+         */
+        private int reactiveSchedulerSize = 10 * Runtime.getRuntime().availableProcessors();
+        /**
+         * ReactiveFileSystem等待执行的阻塞调用数量上限，超出时以错误信号拒绝
+         */
+        private int reactiveSchedulerQueueSize = 100000;
+        /**
+         * ReactiveFileSystem读取文件时每个DataBuffer的大小，单位：byte
+         */
+        private int reactiveBufferSize = 8192;
+        /**
+         * NormalizedPath驻留池的容量，为0时不驻留
+         */
+        private int pathInternCapacity = NormalizedPath.getInternCapacity();
+
+        private MetaCache metaCache = new MetaCache();
+        private ContentCache contentCache = new ContentCache();
+        private Compression compression = new Compression();
+
+        public Compression getCompression() {
+            return compression;
+        }
+
+        public void setCompression(Compression compression) {
+            this.compression = compression;
+        }
+
+        public MetaCache getMetaCache() {
+            return metaCache;
+        }
+
+        public void setMetaCache(MetaCache metaCache) {
+            this.metaCache = metaCache;
+        }
+
+        public ContentCache getContentCache() {
+            return contentCache;
+        }
+
+        public void setContentCache(ContentCache contentCache) {
+            this.contentCache = contentCache;
+        }
 
         public String getNameRegex() {
             return nameRegex;
@@ -147,6 +379,231 @@ public class FrameworkAutoConfiguration {
                 FileSystemSupport.setNamePattern(Pattern.compile(nameRegex));
             }
         }
+
+        public Duration getWatchPollingInterval() {
+            return watchPollingInterval;
+        }
+
+        public void setWatchPollingInterval(Duration watchPollingInterval) {
+            this.watchPollingInterval = watchPollingInterval;
+
+            if (null != watchPollingInterval) {
+                PollingPathWatcher.setDefaultInterval(watchPollingInterval);
+            }
+        }
+
+        public int getReactiveSchedulerSize() {
+            return reactiveSchedulerSize;
+        }
+
+        public void setReactiveSchedulerSize(int reactiveSchedulerSize) {
+            this.reactiveSchedulerSize = reactiveSchedulerSize;
+        }
+
+        public int getReactiveSchedulerQueueSize() {
+            return reactiveSchedulerQueueSize;
+        }
+
+        public void setReactiveSchedulerQueueSize(int reactiveSchedulerQueueSize) {
+            this.reactiveSchedulerQueueSize = reactiveSchedulerQueueSize;
+        }
+
+        public int getReactiveBufferSize() {
+            return reactiveBufferSize;
+        }
+
+        public void setReactiveBufferSize(int reactiveBufferSize) {
+            this.reactiveBufferSize = reactiveBufferSize;
+        }
+
+        public int getPathInternCapacity() {
+            return pathInternCapacity;
+        }
+
+        public void setPathInternCapacity(int pathInternCapacity) {
+            this.pathInternCapacity = pathInternCapacity;
+
+            NormalizedPath.setInternCapacity(pathInternCapacity);
+        }
+
+        public static class MetaCache {
+            /**
+             * 是否在FileSystem驱动外包装一层PathMeta缓存，路径不存在的结果同样被缓存
+             */
+            private boolean enable = false;
+            /**
+             * 缓存的路径数量上限，超出时淘汰最久未访问的路径
+             */
+            private int capacity = 10000;
+            /**
+             * 缓存项的有效期，绕过本进程的修改最迟在这之后可见
+             */
+            private Duration ttl = Duration.ofSeconds(10);
+
+            public boolean isEnable() {
+                return enable;
+            }
+
+            public void setEnable(boolean enable) {
+                this.enable = enable;
+            }
+
+            public int getCapacity() {
+                return capacity;
+            }
+
+            public void setCapacity(int capacity) {
+                this.capacity = capacity;
+            }
+
+            public Duration getTtl() {
+                return ttl;
+            }
+
+            public void setTtl(Duration ttl) {
+                this.ttl = ttl;
+            }
+        }
+
+        public static class Compression {
+            /**
+             * 是否在FileSystem驱动外包装一层透明压缩，适用于日志、会话、键值对等易压缩的内容
+             */
+            private boolean enable = false;
+            /**
+             * 小于该大小的内容不压缩，单位：byte
+             */
+            private int fileSizeThreshold = 4096;
+            /**
+             * deflate压缩级别，1（最快）到9（压缩率最高）
+             */
+            private int level = 1;
+            /**
+             * 只压缩这些路径下的文件，为空则压缩所有路径
+             */
+            private List<String> pathPrefixes = new ArrayList<>();
+            /**
+             * 不压缩这些扩展名的文件，通常是已经压缩过的格式；内容的文件头表明已压缩时同样不压缩
+             */
+            private List<String> excludedExtensions = new ArrayList<>(Arrays.asList(
+                "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "webm", "zip", "gz", "bz2", "xz", "7z", "rar", "zst", "lz4", "woff2"
+            ));
+
+            public boolean isEnable() {
+                return enable;
+            }
+
+            public void setEnable(boolean enable) {
+                this.enable = enable;
+            }
+
+            public int getFileSizeThreshold() {
+                return fileSizeThreshold;
+            }
+
+            public void setFileSizeThreshold(int fileSizeThreshold) {
+                this.fileSizeThreshold = fileSizeThreshold;
+            }
+
+            public int getLevel() {
+                return level;
+            }
+
+            public void setLevel(int level) {
+                this.level = level;
+            }
+
+            public List<String> getPathPrefixes() {
+                return pathPrefixes;
+            }
+
+            public void setPathPrefixes(List<String> pathPrefixes) {
+                this.pathPrefixes = pathPrefixes;
+            }
+
+            public List<String> getExcludedExtensions() {
+                return excludedExtensions;
+            }
+
+            public void setExcludedExtensions(List<String> excludedExtensions) {
+                this.excludedExtensions = excludedExtensions;
+            }
+        }
+
+        public static class ContentCache {
+            /**
+             * 是否在FileSystem驱动外包装一层文件内容缓存，适用于Mongo等远程驱动
+             */
+            private boolean enable = false;
+            /**
+             * 缓存在堆外内存中的文件大小上限，单位：byte
+             */
+            private long memoryFileSizeThreshold = 256 * 1024;
+            /**
+             * 内存缓存的总大小上限，超出时淘汰最久未读取的文件，单位：byte
+             */
+            private long memoryCapacity = 64 * 1024 * 1024;
+            /**
+             * 缓存在本地磁盘中的文件大小上限，单位：byte
+             */
+            private long diskFileSizeThreshold = 64 * 1024 * 1024;
+            /**
+             * 磁盘缓存的总大小上限，超出时淘汰最久未读取的文件，不大于0则不使用磁盘缓存，单位：byte
+             */
+            private long diskCapacity = 1024 * 1024 * 1024;
+            /**
+             * 磁盘缓存在本地文件系统中的上级目录，每个实例在其下创建独立的目录并在退出时删除，为空则使用java.io.tmpdir
+             */
+            private String diskWorkingRoot;
+
+            public boolean isEnable() {
+                return enable;
+            }
+
+            public void setEnable(boolean enable) {
+                this.enable = enable;
+            }
+
+            public long getMemoryFileSizeThreshold() {
+                return memoryFileSizeThreshold;
+            }
+
+            public void setMemoryFileSizeThreshold(long memoryFileSizeThreshold) {
+                this.memoryFileSizeThreshold = memoryFileSizeThreshold;
+            }
+
+            public long getMemoryCapacity() {
+                return memoryCapacity;
+            }
+
+            public void setMemoryCapacity(long memoryCapacity) {
+                this.memoryCapacity = memoryCapacity;
+            }
+
+            public long getDiskFileSizeThreshold() {
+                return diskFileSizeThreshold;
+            }
+
+            public void setDiskFileSizeThreshold(long diskFileSizeThreshold) {
+                this.diskFileSizeThreshold = diskFileSizeThreshold;
+            }
+
+            public long getDiskCapacity() {
+                return diskCapacity;
+            }
+
+            public void setDiskCapacity(long diskCapacity) {
+                this.diskCapacity = diskCapacity;
+            }
+
+            public String getDiskWorkingRoot() {
+                return diskWorkingRoot;
+            }
+
+            public void setDiskWorkingRoot(String diskWorkingRoot) {
+                this.diskWorkingRoot = diskWorkingRoot;
+            }
+        }
     }
 
     public static class LocalFileSystemProperties {
@@ -154,6 +611,58 @@ public class FrameworkAutoConfiguration {
          * FileSystem默认驱动在本地文件系统中的实际路径
          */
         private String workingRoot = "${user.home}/sq_filesystem";
+        /**
+         * 分片模式下各个分片的实际路径，通常位于不同的磁盘；不为空时忽略workingRoot，按路径的一致性哈希把文件分布到各分片
+         */
+        private List<String> workingRoots = new ArrayList<>();
+        /**
+         * 原子写入时，是否在替换目标文件前把临时文件同步（fsync）到存储设备
+         */
+        private boolean syncOnAtomicPut = false;
+        /**
+         * 递归列举、删除、复制时并行遍历目录树的线程数，不大于1则单线程遍历。并行列举会先把整棵树的结果读入内存，不再按需分页
+         */
+        private int walkParallelism = 1;
+        /**
+         * 移动、复制目录时并发传输文件的线程数，不大于1则逐个传输
+         */
+        private int transferConcurrency = Runtime.getRuntime().availableProcessors();
+        /**
+         * 批量读取元信息、检查存在、写入、删除时并行执行的线程数，不大于1则逐个执行
+         */
+        private int batchParallelism = Runtime.getRuntime().availableProcessors();
+        /**
+         * 写入时计算文件内容的校验和，保存在文件的扩展属性中，读取流读到末尾时校验；文件存储不支持扩展属性时不校验
+         */
+        private boolean checksum = false;
+
+        private MappedRead mappedRead = new MappedRead();
+        private Dedup dedup = new Dedup();
+        private NameIndex nameIndex = new NameIndex();
+
+        public MappedRead getMappedRead() {
+            return mappedRead;
+        }
+
+        public void setMappedRead(MappedRead mappedRead) {
+            this.mappedRead = mappedRead;
+        }
+
+        public Dedup getDedup() {
+            return dedup;
+        }
+
+        public void setDedup(Dedup dedup) {
+            this.dedup = dedup;
+        }
+
+        public NameIndex getNameIndex() {
+            return nameIndex;
+        }
+
+        public void setNameIndex(NameIndex nameIndex) {
+            this.nameIndex = nameIndex;
+        }
 
         public String getWorkingRoot() {
             return workingRoot;
@@ -162,6 +671,160 @@ public class FrameworkAutoConfiguration {
         public void setWorkingRoot(String workingRoot) {
             this.workingRoot = workingRoot;
         }
+
+        public List<String> getWorkingRoots() {
+            return workingRoots;
+        }
+
+        public void setWorkingRoots(List<String> workingRoots) {
+            this.workingRoots = workingRoots;
+        }
+
+        public boolean isChecksum() {
+            return checksum;
+        }
+
+        public void setChecksum(boolean checksum) {
+            this.checksum = checksum;
+        }
+
+        public boolean isSyncOnAtomicPut() {
+            return syncOnAtomicPut;
+        }
+
+        public void setSyncOnAtomicPut(boolean syncOnAtomicPut) {
+            this.syncOnAtomicPut = syncOnAtomicPut;
+        }
+
+        public int getWalkParallelism() {
+            return walkParallelism;
+        }
+
+        public void setWalkParallelism(int walkParallelism) {
+            this.walkParallelism = walkParallelism;
+        }
+
+        public int getTransferConcurrency() {
+            return transferConcurrency;
+        }
+
+        public void setTransferConcurrency(int transferConcurrency) {
+            this.transferConcurrency = transferConcurrency;
+        }
+
+        public int getBatchParallelism() {
+            return batchParallelism;
+        }
+
+        public void setBatchParallelism(int batchParallelism) {
+            this.batchParallelism = batchParallelism;
+        }
+
+        public static class Dedup {
+            /**
+             * 是否按内容去重存储文件，相同内容只存储一次，复制文件只创建硬链接；写入文件统一改为原子替换。
+             * 内容相同的路径共享同一份时间，写入时刷新为当前时间，会一并延长其他内容相同的条目（如键值对）按时间计算的过期时间
+             */
+            private boolean enable = false;
+            /**
+             * 按内容寻址的文件池在本地文件系统中的实际路径，必须与workingRoot在同一文件存储上；分片模式下各分片使用各自根目录旁的{root}_blobs
+             */
+            private String blobRoot = "${user.home}/sq_filesystem_blobs";
+            /**
+             * 清理文件池中无引用文件的间隔
+             */
+            private Duration collectInterval = Duration.ofMinutes(10);
+
+            public boolean isEnable() {
+                return enable;
+            }
+
+            public void setEnable(boolean enable) {
+                this.enable = enable;
+            }
+
+            public String getBlobRoot() {
+                return blobRoot;
+            }
+
+            public void setBlobRoot(String blobRoot) {
+                this.blobRoot = blobRoot;
+            }
+
+            public Duration getCollectInterval() {
+                return collectInterval;
+            }
+
+            public void setCollectInterval(Duration collectInterval) {
+                this.collectInterval = collectInterval;
+            }
+        }
+
+        public static class NameIndex {
+            /**
+             * 是否为按前缀查找的目录在内存中保持有序的名称索引，目录的修改时间变化时重建
+             */
+            private boolean enable = false;
+            /**
+             * 同时保持索引的目录数量上限，超出时淘汰最久未查找的目录
+             */
+            private int capacity = 1024;
+
+            public boolean isEnable() {
+                return enable;
+            }
+
+            public void setEnable(boolean enable) {
+                this.enable = enable;
+            }
+
+            public int getCapacity() {
+                return capacity;
+            }
+
+            public void setCapacity(int capacity) {
+                this.capacity = capacity;
+            }
+        }
+
+        public static class MappedRead {
+            /**
+             * 是否以内存映射的方式读取小文件，启用后写入文件统一改为原子替换
+             */
+            private boolean enable = false;
+            /**
+             * 同时保持映射的文件数量上限，超出时淘汰最久未读取的文件
+             */
+            private int capacity = 1024;
+            /**
+             * 文件大小阈值，不大于该阈值的文件才会被映射，单位：byte
+             */
+            private long fileSizeThreshold = 64 * 1024;
+
+            public boolean isEnable() {
+                return enable;
+            }
+
+            public void setEnable(boolean enable) {
+                this.enable = enable;
+            }
+
+            public int getCapacity() {
+                return capacity;
+            }
+
+            public void setCapacity(int capacity) {
+                this.capacity = capacity;
+            }
+
+            public long getFileSizeThreshold() {
+                return fileSizeThreshold;
+            }
+
+            public void setFileSizeThreshold(long fileSizeThreshold) {
+                this.fileSizeThreshold = fileSizeThreshold;
+            }
+        }
     }
 
     public static class KeyValueStoreProperties {
@@ -197,6 +860,30 @@ public class FrameworkAutoConfiguration {
              * 文件名中不同部分的分隔
              */
             private String nameSeparator = "__";
+            /**
+             * 按key的哈希值把条目分散到多级子目录的层数，为0时所有条目位于workingRoot下
+             */
+            private int fanOutLevels = 0;
+            /**
+             * 每层子目录名的长度
+             */
+            private int fanOutWidth = 2;
+
+            public int getFanOutLevels() {
+                return fanOutLevels;
+            }
+
+            public void setFanOutLevels(int fanOutLevels) {
+                this.fanOutLevels = fanOutLevels;
+            }
+
+            public int getFanOutWidth() {
+                return fanOutWidth;
+            }
+
+            public void setFanOutWidth(int fanOutWidth) {
+                this.fanOutWidth = fanOutWidth;
+            }
 
             public String getNameSeparator() {
                 return nameSeparator;
@@ -0,0 +1,15 @@
+package com.ai.southernquiet.filesystem;
+
+import java.io.IOException;
+
+/**
+ * 读取的文件内容与写入时记录的校验和不一致。
+ * 由读取流抛出，因此是 {@link IOException} 而不是 {@link FileSystemException}。
+ */
+public class ChecksumMismatchException extends IOException {
+    private final static long serialVersionUID = 2271934405611253309L;
+
+    public ChecksumMismatchException(String path, String expected, String actual) {
+        super(String.format("%s 校验和不一致，期望%s，实际%s", path, expected, actual));
+    }
+}
@@ -0,0 +1,548 @@
+package com.ai.southernquiet.filesystem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * 透明压缩文件内容的FileSystem装饰器，适用于任何驱动。
+ * <ul>
+ * <li>压缩后的文件以 {@link #MAGIC} 和 {@link #DEFLATED} 开头，后面是一段或多段deflate数据。</li>
+ * <li>未压缩的内容原样存储；只有内容本身以 {@link #MAGIC} 开头（或是它的前缀）时才加上 {@link #MAGIC} 和 {@link #STORED}，
+ * 因此经由本装饰器写入的任何内容都不会被误认为已压缩，也可以在已有数据上启用。</li>
+ * <li>小于阈值的内容、不在指定路径前缀下的文件、扩展名或文件头表明已是压缩格式（图片、压缩包等）的内容不压缩。</li>
+ * <li>向已压缩的文件追加时写入新的一段deflate数据；向未压缩的已有文件追加时仍写入原始内容。</li>
+ * <li>{@link PathMeta#getSize()} 是存储的大小：已压缩的文件是压缩后的大小，加了文件头的文件包含文件头。</li>
+ * <li>已压缩的文件不支持范围读取，因为调用方无法从存储的大小得知内容的范围。</li>
+ * </ul>
+ */
+@SuppressWarnings("WeakerAccess")
+public class CompressedFileSystem implements FileSystem {
+    private final static byte[] MAGIC = {(byte) 0xC5, 'S', 'Q', 'Z'};
+    /**
+     * 紧随 {@link #MAGIC} 的一个字节，表明其后的内容是原样存储的。
+     */
+    private final static byte STORED = 0;
+    /**
+     * 紧随 {@link #MAGIC} 的一个字节，表明其后的内容是deflate数据。
+     */
+    private final static byte DEFLATED = 1;
+    private final static int HEADER_LENGTH = MAGIC.length + 1;
+    private final static int BUFFER_SIZE = 8192;
+
+    /**
+     * 常见的已压缩格式的文件头。
+     */
+    private final static byte[][] COMPRESSED_SIGNATURES = {
+        {0x1F, (byte) 0x8B}, //gzip
+        {'P', 'K', 0x03, 0x04}, //zip, jar, docx
+        {(byte) 0x89, 'P', 'N', 'G'},
+        {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}, //jpeg
+        {'G', 'I', 'F', '8'},
+        {'R', 'I', 'F', 'F'}, //webp, avi, wav
+        {0x28, (byte) 0xB5, 0x2F, (byte) 0xFD}, //zstd
+        {0x04, 0x22, 0x4D, 0x18}, //lz4
+        {(byte) 0xFD, '7', 'z', 'X', 'Z'},
+        {'B', 'Z', 'h'},
+        {'7', 'z', (byte) 0xBC, (byte) 0xAF},
+        {'R', 'a', 'r', '!'}
+    };
+    private final static int SIGNATURE_LENGTH = 8;
+
+    private final FileSystem fileSystem;
+    private final int fileSizeThreshold;
+    private final int level;
+    private final List<String> pathPrefixes;
+    private final Set<String> excludedExtensions;
+
+    /**
+     * @param fileSizeThreshold  小于该大小的内容不压缩，单位：byte
+     * @param level              压缩级别，1（最快）到9（压缩率最高）
+     * @param pathPrefixes       只压缩这些路径下的文件，为空则压缩所有路径
+     * @param excludedExtensions 不压缩这些扩展名的文件，不区分大小写
+     */
+    public CompressedFileSystem(FileSystem fileSystem, int fileSizeThreshold, int level, Collection<String> pathPrefixes, Collection<String> excludedExtensions) {
+        this.fileSystem = fileSystem;
+        this.fileSizeThreshold = fileSizeThreshold;
+        this.level = level;
+        this.pathPrefixes = pathPrefixes.stream().map(p -> NormalizedPath.of(p).toString()).collect(Collectors.toList());
+        this.excludedExtensions = excludedExtensions.stream().map(e -> e.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+    }
+
+    public FileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public void createDirectory(String path) {
+        fileSystem.createDirectory(path);
+    }
+
+    @Override
+    public void put(String path, InputStream stream) throws InvalidFileException {
+        fileSystem.put(path, encode(path, stream));
+    }
+
+    @Override
+    public void putAtomically(String path, InputStream stream) throws InvalidFileException {
+        fileSystem.putAtomically(path, encode(path, stream));
+    }
+
+    @Override
+    public void putAll(Map<String, ? extends InputStream> files) throws InvalidFileException {
+        Map<String, InputStream> encoded = new LinkedHashMap<>();
+        for (Map.Entry<String, ? extends InputStream> entry : files.entrySet()) {
+            encoded.put(entry.getKey(), encode(entry.getKey(), entry.getValue()));
+        }
+
+        fileSystem.putAll(encoded);
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return fileSystem.exists(path);
+    }
+
+    @Override
+    public Map<String, Boolean> existsAll(Collection<String> paths) {
+        return fileSystem.existsAll(paths);
+    }
+
+    @Override
+    public InputStream openReadStream(String path) throws InvalidFileException {
+        PushbackInputStream inputStream = new PushbackInputStream(fileSystem.openReadStream(path), HEADER_LENGTH);
+
+        try {
+            return DEFLATED == readHeader(inputStream) ? new InflatingInputStream(inputStream) : inputStream;
+        }
+        catch (IOException e) {
+            close(inputStream, e);
+            throw new InvalidFileException(path, e);
+        }
+    }
+
+    /**
+     * 原样存储的文件直接由驱动范围读取，已压缩的文件抛出 {@link InvalidFileException}。
+     */
+    @Override
+    public RangedChannel openReadChannel(String path, long position, long count) throws InvalidFileException {
+        int header;
+        try (PushbackInputStream inputStream = new PushbackInputStream(fileSystem.openReadStream(path), HEADER_LENGTH)) {
+            header = readHeader(inputStream);
+        }
+        catch (IOException e) {
+            throw new InvalidFileException(path, e);
+        }
+
+        if (DEFLATED == header) throw new InvalidFileException("已压缩的文件不支持范围读取：" + path);
+        if (STORED == header) return fileSystem.openReadChannel(path, position + HEADER_LENGTH, count);
+
+        return fileSystem.openReadChannel(path, position, count);
+    }
+
+    /**
+     * 新文件在写入的内容达到阈值时才决定是否压缩；已有的文件沿用原来的方式。
+     */
+    @Override
+    public OutputStream openWriteStream(String path) throws InvalidFileException {
+        PathMeta meta = fileSystem.meta(path);
+        boolean empty = null == meta || 0 == meta.getSize();
+
+        boolean compressed = false;
+        if (!empty) {
+            try (PushbackInputStream inputStream = new PushbackInputStream(fileSystem.openReadStream(path), HEADER_LENGTH)) {
+                compressed = DEFLATED == readHeader(inputStream);
+            }
+            catch (IOException e) {
+                throw new InvalidFileException(path, e);
+            }
+        }
+
+        OutputStream outputStream = fileSystem.openWriteStream(path);
+
+        if (compressed) return new FinishingDeflaterOutputStream(outputStream, new Deflater(level, true));
+        if (!empty) return outputStream;
+
+        return new ThresholdOutputStream(outputStream, isCompressible(path));
+    }
+
+    @Override
+    public void move(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        fileSystem.move(source, destination, replaceExisting);
+    }
+
+    @Override
+    public void copy(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        fileSystem.copy(source, destination, replaceExisting);
+    }
+
+    @Override
+    public void delete(String path) {
+        fileSystem.delete(path);
+    }
+
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        fileSystem.deleteAll(paths);
+    }
+
+    @Override
+    public void touchCreation(String path) {
+        fileSystem.touchCreation(path);
+    }
+
+    @Override
+    public void touchLastModified(String path) {
+        fileSystem.touchLastModified(path);
+    }
+
+    @Override
+    public void touchLastAccess(String path) {
+        fileSystem.touchLastAccess(path);
+    }
+
+    @Override
+    public PathMeta meta(String path) {
+        return fileSystem.meta(path);
+    }
+
+    @Override
+    public Map<String, ? extends PathMeta> metaAll(Collection<String> paths) {
+        return fileSystem.metaAll(paths);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return fileSystem.directories(path, search, recursive, offset, limit, sort);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return fileSystem.files(path, search, recursive, offset, limit, sort);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> directoriesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return fileSystem.directoriesWithPrefix(path, prefix);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> filesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return fileSystem.filesWithPrefix(path, prefix);
+    }
+
+    @Override
+    public PathWatcher watch(String path, Consumer<PathEvent> listener) throws PathNotFoundException {
+        return fileSystem.watch(path, listener);
+    }
+
+    /**
+     * 先读入阈值大小的开头部分，据此决定是否压缩，其余部分随驱动的读取而流式压缩。
+     */
+    private InputStream encode(String path, InputStream stream) throws InvalidFileException {
+        boolean compressible = isCompressible(path);
+
+        byte[] head;
+        try {
+            head = readHead(stream, compressible ? Math.max(fileSizeThreshold, SIGNATURE_LENGTH) : MAGIC.length);
+        }
+        catch (IOException e) {
+            throw new InvalidFileException(path, e);
+        }
+
+        InputStream content = new SequenceInputStream(new ByteArrayInputStream(head), stream);
+        if (!compressible || head.length < fileSizeThreshold || isCompressed(head)) {
+            return needsHeader(head) ? new SequenceInputStream(new ByteArrayInputStream(header(STORED)), content) : content;
+        }
+
+        return new SequenceInputStream(new ByteArrayInputStream(header(DEFLATED)), new EndingDeflaterInputStream(content, new Deflater(level, true)));
+    }
+
+    private boolean isCompressible(String path) {
+        NormalizedPath normalizedPath = NormalizedPath.of(path);
+
+        String name = normalizedPath.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && excludedExtensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) return false;
+
+        if (pathPrefixes.isEmpty()) return true;
+
+        String p = normalizedPath.toString();
+        return pathPrefixes.stream().anyMatch(prefix -> p.equals(prefix) || p.startsWith(prefix + PATH_SEPARATOR_STRING) || PATH_SEPARATOR_STRING.equals(prefix));
+    }
+
+    private static boolean isCompressed(byte[] head) {
+        for (byte[] signature : COMPRESSED_SIGNATURES) {
+            if (head.length >= signature.length && Arrays.equals(signature, Arrays.copyOf(head, signature.length))) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * 原样存储的内容以 {@link #MAGIC} 或它的前缀开头时需要加上文件头，否则读取时（或追加之后）会被误认为带有文件头。
+     */
+    private static boolean needsHeader(byte[] head) {
+        if (0 == head.length) return false;
+
+        int length = Math.min(head.length, MAGIC.length);
+        return Arrays.equals(Arrays.copyOf(MAGIC, length), Arrays.copyOf(head, length));
+    }
+
+    private static byte[] header(byte flag) {
+        byte[] header = Arrays.copyOf(MAGIC, HEADER_LENGTH);
+        header[MAGIC.length] = flag;
+        return header;
+    }
+
+    /**
+     * 读取文件头，不是本装饰器写入的文件头时退回已读的字节。
+     *
+     * @return {@link #STORED}、{@link #DEFLATED}，没有文件头时返回-1。
+     */
+    private static int readHeader(PushbackInputStream inputStream) throws IOException {
+        byte[] head = readHead(inputStream, HEADER_LENGTH);
+        if (HEADER_LENGTH == head.length && Arrays.equals(MAGIC, Arrays.copyOf(head, MAGIC.length))) {
+            byte flag = head[MAGIC.length];
+            if (STORED == flag || DEFLATED == flag) return flag;
+        }
+
+        inputStream.unread(head);
+        return -1;
+    }
+
+    /**
+     * @return 读到的字节，流提前结束时短于size。
+     */
+    private static byte[] readHead(InputStream inputStream, int size) throws IOException {
+        byte[] head = new byte[size];
+        int length = 0;
+        int n;
+        while (length < size && (n = inputStream.read(head, length, size - length)) >= 0) {
+            length += n;
+        }
+
+        return length == size ? head : Arrays.copyOf(head, length);
+    }
+
+    private static void close(InputStream inputStream, IOException e) {
+        try {
+            inputStream.close();
+        }
+        catch (IOException ex) {
+            e.addSuppressed(ex);
+        }
+    }
+
+    /**
+     * 关闭时释放Deflater的本地内存。
+     */
+    private static class EndingDeflaterInputStream extends DeflaterInputStream {
+        private EndingDeflaterInputStream(InputStream in, Deflater deflater) {
+            super(in, deflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                def.end();
+            }
+        }
+    }
+
+    /**
+     * 关闭时写完当前这段deflate数据，并释放Deflater的本地内存。
+     */
+    private static class FinishingDeflaterOutputStream extends DeflaterOutputStream {
+        private FinishingDeflaterOutputStream(OutputStream out, Deflater deflater) {
+            super(out, deflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                def.end();
+            }
+        }
+    }
+
+    /**
+     * 写入的内容达到阈值前暂存在内存中，达到时按开头判断是否压缩，关闭时仍未达到则原样写入。
+     * 不压缩的路径只暂存开头的几个字节，用来判断是否需要文件头。
+     */
+    private class ThresholdOutputStream extends OutputStream {
+        private OutputStream out;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final boolean compressible;
+        private final int threshold;
+
+        private ThresholdOutputStream(OutputStream out, boolean compressible) {
+            this.out = out;
+            this.compressible = compressible;
+            this.threshold = compressible ? Math.max(fileSizeThreshold, SIGNATURE_LENGTH) : MAGIC.length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (null == buffer) {
+                out.write(b, off, len);
+                return;
+            }
+
+            buffer.write(b, off, len);
+            if (buffer.size() >= threshold) {
+                decide();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (null != buffer) {
+                byte[] bytes = buffer.toByteArray();
+                buffer = null;
+                writeStored(bytes);
+            }
+
+            out.close();
+        }
+
+        private void decide() throws IOException {
+            byte[] bytes = buffer.toByteArray();
+            buffer = null;
+
+            if (!compressible || isCompressed(bytes)) {
+                writeStored(bytes);
+                return;
+            }
+
+            out.write(header(DEFLATED));
+            out = new FinishingDeflaterOutputStream(out, new Deflater(level, true));
+            out.write(bytes);
+        }
+
+        private void writeStored(byte[] bytes) throws IOException {
+            if (needsHeader(bytes)) {
+                out.write(header(STORED));
+            }
+
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * 依次解压连续的多段deflate数据。
+     */
+    private static class InflatingInputStream extends InputStream {
+        private final InputStream in;
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] input = new byte[BUFFER_SIZE];
+        private int inputLength;
+        /**
+         * 当前这段数据是否已经开始，用来区分正常结束与数据截断。
+         */
+        private boolean started;
+        private boolean eof;
+
+        private InflatingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (0 == len) return 0;
+
+            try {
+                while (!eof) {
+                    int n = inflater.inflate(b, off, len);
+                    if (n > 0) return n;
+
+                    if (inflater.finished()) {
+                        int remaining = inflater.getRemaining();
+                        inflater.reset();
+                        started = false;
+
+                        if (remaining > 0) {
+                            inflater.setInput(input, inputLength - remaining, remaining);
+                            started = true;
+                        }
+                    }
+                    else if (inflater.needsDictionary()) {
+                        throw new IOException("不支持预设字典");
+                    }
+                    else if (inflater.needsInput()) {
+                        inputLength = in.read(input, 0, input.length);
+                        if (inputLength < 0) {
+                            if (started) throw new EOFException("压缩数据不完整");
+
+                            eof = true;
+                        }
+                        else {
+                            inflater.setInput(input, 0, inputLength);
+                            started = true;
+                        }
+                    }
+                    else {
+                        throw new IOException("压缩数据无效");
+                    }
+                }
+            }
+            catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            }
+            finally {
+                inflater.end();
+            }
+        }
+    }
+}
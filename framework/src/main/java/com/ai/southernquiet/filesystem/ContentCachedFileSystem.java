@@ -0,0 +1,489 @@
+package com.ai.southernquiet.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 缓存文件内容的FileSystem装饰器，用于读多写少、热点集中的远程驱动。
+ * <ul>
+ * <li>不大于memoryFileSizeThreshold的文件缓存在堆外内存中。</li>
+ * <li>不大于diskFileSizeThreshold的文件缓存在本地的另一个FileSystem中，通常是 {@link com.ai.southernquiet.filesystem.driver.LocalFileSystem}。</li>
+ * <li>更大的文件不缓存。每层按LRU淘汰，直到总大小不超过该层的容量。</li>
+ * <li>每次读取都用 {@link #meta(String)} 的大小与修改时间校验缓存，不一致时重新加载；
+ * 经由本实例的写入、移动、复制、删除会直接使缓存失效。</li>
+ * </ul>
+ */
+@SuppressWarnings("WeakerAccess")
+public class ContentCachedFileSystem implements FileSystem {
+    private final static Logger log = LoggerFactory.getLogger(ContentCachedFileSystem.class);
+
+    private final FileSystem fileSystem;
+    private final FileSystem diskTier;
+    private final long memoryFileSizeThreshold;
+    private final long memoryCapacity;
+    private final long diskFileSizeThreshold;
+    private final long diskCapacity;
+
+    private final LinkedHashMap<String, MemoryEntry> memoryEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Stamp> diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memorySize = 0;
+    private long diskSize = 0;
+
+    /**
+     * @param fileSystem              被装饰的驱动
+     * @param diskTier                磁盘缓存层，为null则只使用内存缓存。须为本实例独占，且启动时为空。
+     * @param memoryFileSizeThreshold 缓存在内存中的文件大小上限，单位：byte。
+     * @param memoryCapacity          内存缓存的总大小上限，单位：byte。
+     * @param diskFileSizeThreshold   缓存在磁盘中的文件大小上限，单位：byte。
+     * @param diskCapacity            磁盘缓存的总大小上限，单位：byte。
+     */
+    public ContentCachedFileSystem(FileSystem fileSystem, FileSystem diskTier,
+                                   long memoryFileSizeThreshold, long memoryCapacity,
+                                   long diskFileSizeThreshold, long diskCapacity) {
+        this.fileSystem = fileSystem;
+        this.diskTier = diskTier;
+        this.memoryFileSizeThreshold = Math.min(memoryFileSizeThreshold, Integer.MAX_VALUE);
+        this.memoryCapacity = memoryCapacity;
+        this.diskFileSizeThreshold = diskFileSizeThreshold;
+        this.diskCapacity = diskCapacity;
+    }
+
+    public FileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public InputStream openReadStream(String path) throws InvalidFileException {
+        PathMeta meta = fileSystem.meta(path);
+        if (null == meta || meta.isDirectory()) return fileSystem.openReadStream(path);
+
+        String key = NormalizedPath.of(path).toString();
+        Stamp stamp = new Stamp(meta);
+
+        ByteBuffer buffer = getFromMemory(key, stamp);
+        if (null != buffer) return new ByteBufferInputStream(buffer);
+
+        InputStream inputStream = getFromDisk(key, stamp);
+        if (null != inputStream) return inputStream;
+
+        if (stamp.size <= memoryFileSizeThreshold && stamp.size <= memoryCapacity) {
+            buffer = loadToMemory(path, key, stamp);
+            if (null != buffer) return new ByteBufferInputStream(buffer);
+        }
+
+        if (null != diskTier && stamp.size <= diskFileSizeThreshold && stamp.size <= diskCapacity) {
+            inputStream = loadToDisk(path, key, stamp);
+            if (null != inputStream) return inputStream;
+        }
+
+        return fileSystem.openReadStream(path);
+    }
+
+    /**
+     * 内存命中时直接定位，其他情况交给被装饰的驱动。
+     */
+    @Override
+    public RangedChannel openReadChannel(String path, long position, long count) throws InvalidFileException {
+        PathMeta meta = fileSystem.meta(path);
+        if (null != meta && !meta.isDirectory()) {
+            ByteBuffer buffer = getFromMemory(NormalizedPath.of(path).toString(), new Stamp(meta));
+            if (null != buffer) {
+                buffer.position((int) Math.min(Math.max(position, 0), buffer.limit()));
+                return new RangedChannel(Channels.newChannel(new ByteBufferInputStream(buffer)), count);
+            }
+        }
+
+        return fileSystem.openReadChannel(path, position, count);
+    }
+
+    @Override
+    public void createDirectory(String path) {
+        fileSystem.createDirectory(path);
+    }
+
+    @Override
+    public void put(String path, InputStream stream) throws InvalidFileException {
+        try {
+            fileSystem.put(path, stream);
+        }
+        finally {
+            invalidate(path, false);
+        }
+    }
+
+    @Override
+    public void putAtomically(String path, InputStream stream) throws InvalidFileException {
+        try {
+            fileSystem.putAtomically(path, stream);
+        }
+        finally {
+            invalidate(path, false);
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, ? extends InputStream> files) throws InvalidFileException {
+        try {
+            fileSystem.putAll(files);
+        }
+        finally {
+            files.keySet().forEach(path -> invalidate(path, false));
+        }
+    }
+
+    @Override
+    public OutputStream openWriteStream(String path) throws InvalidFileException {
+        invalidate(path, false);
+
+        return new FilterOutputStream(fileSystem.openWriteStream(path)) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                }
+                finally {
+                    invalidate(path, false);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void move(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        try {
+            fileSystem.move(source, destination, replaceExisting);
+        }
+        finally {
+            invalidate(source, true);
+            invalidate(destination, true);
+        }
+    }
+
+    @Override
+    public void copy(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        try {
+            fileSystem.copy(source, destination, replaceExisting);
+        }
+        finally {
+            invalidate(destination, true);
+        }
+    }
+
+    @Override
+    public void delete(String path) {
+        try {
+            fileSystem.delete(path);
+        }
+        finally {
+            invalidate(path, true);
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        try {
+            fileSystem.deleteAll(paths);
+        }
+        finally {
+            paths.forEach(path -> invalidate(path, true));
+        }
+    }
+
+    @Override
+    public void touchCreation(String path) {
+        fileSystem.touchCreation(path);
+    }
+
+    @Override
+    public void touchLastModified(String path) {
+        fileSystem.touchLastModified(path);
+    }
+
+    @Override
+    public void touchLastAccess(String path) {
+        fileSystem.touchLastAccess(path);
+    }
+
+    @Override
+    public PathMeta meta(String path) {
+        return fileSystem.meta(path);
+    }
+
+    @Override
+    public Map<String, ? extends PathMeta> metaAll(Collection<String> paths) {
+        return fileSystem.metaAll(paths);
+    }
+
+    @Override
+    public Map<String, Boolean> existsAll(Collection<String> paths) {
+        return fileSystem.existsAll(paths);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return fileSystem.directories(path, search, recursive, offset, limit, sort);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return fileSystem.files(path, search, recursive, offset, limit, sort);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> directoriesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return fileSystem.directoriesWithPrefix(path, prefix);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> filesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return fileSystem.filesWithPrefix(path, prefix);
+    }
+
+    @Override
+    public PathWatcher watch(String path, Consumer<PathEvent> listener) throws PathNotFoundException {
+        return fileSystem.watch(path, listener);
+    }
+
+    /**
+     * 使路径的缓存失效。
+     *
+     * @param descendants 如果true，路径下所有子孙的缓存也一并失效。
+     */
+    public void invalidate(String path, boolean descendants) {
+        String key = NormalizedPath.of(path).toString();
+        String prefix = PATH_SEPARATOR_STRING.equals(key) ? key : key + PATH_SEPARATOR_STRING;
+
+        synchronized (memoryEntries) {
+            Iterator<Map.Entry<String, MemoryEntry>> iterator = memoryEntries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, MemoryEntry> entry = iterator.next();
+                if (entry.getKey().equals(key) || (descendants && entry.getKey().startsWith(prefix))) {
+                    memorySize -= entry.getValue().stamp.size;
+                    iterator.remove();
+                }
+            }
+        }
+
+        if (null == diskTier) return;
+
+        synchronized (diskEntries) {
+            Iterator<Map.Entry<String, Stamp>> iterator = diskEntries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Stamp> entry = iterator.next();
+                if (entry.getKey().equals(key) || (descendants && entry.getKey().startsWith(prefix))) {
+                    diskSize -= entry.getValue().size;
+                    iterator.remove();
+                    diskTier.delete(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private ByteBuffer getFromMemory(String key, Stamp stamp) {
+        synchronized (memoryEntries) {
+            MemoryEntry entry = memoryEntries.get(key);
+            if (null == entry) return null;
+
+            if (entry.stamp.equals(stamp)) return entry.buffer.duplicate();
+
+            memorySize -= entry.stamp.size;
+            memoryEntries.remove(key);
+            return null;
+        }
+    }
+
+    private InputStream getFromDisk(String key, Stamp stamp) {
+        if (null == diskTier) return null;
+
+        synchronized (diskEntries) {
+            Stamp cached = diskEntries.get(key);
+            if (null == cached) return null;
+
+            if (cached.equals(stamp)) {
+                try {
+                    return diskTier.openReadStream(key);
+                }
+                catch (InvalidFileException e) {
+                    log.warn("磁盘缓存的文件已失效：{}", key, e);
+                }
+            }
+
+            diskSize -= cached.size;
+            diskEntries.remove(key);
+            diskTier.delete(key);
+            return null;
+        }
+    }
+
+    /**
+     * 一次性读入大小确定的堆外缓冲区，避免在堆上中转。
+     *
+     * @return 读到的长度与元信息不一致，即读取期间文件被修改时，返回null。
+     */
+    private ByteBuffer loadToMemory(String path, String key, Stamp stamp) throws InvalidFileException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) stamp.size);
+
+        try (ReadableByteChannel channel = Channels.newChannel(fileSystem.openReadStream(path))) {
+            int n = 0;
+            while (buffer.hasRemaining() && (n = channel.read(buffer)) >= 0) {
+                //continue
+            }
+
+            if (n < 0 || channel.read(ByteBuffer.allocate(1)) > 0) return null;
+        }
+        catch (IOException e) {
+            throw new InvalidFileException(path, e);
+        }
+
+        buffer.flip();
+
+        synchronized (memoryEntries) {
+            MemoryEntry previous = memoryEntries.put(key, new MemoryEntry(buffer, stamp));
+            if (null != previous) {
+                memorySize -= previous.stamp.size;
+            }
+            memorySize += stamp.size;
+
+            Iterator<MemoryEntry> iterator = memoryEntries.values().iterator();
+            while (memorySize > memoryCapacity && iterator.hasNext()) {
+                memorySize -= iterator.next().stamp.size;
+                iterator.remove();
+            }
+        }
+
+        return buffer.duplicate();
+    }
+
+    private InputStream loadToDisk(String path, String key, Stamp stamp) throws InvalidFileException {
+        try (InputStream inputStream = fileSystem.openReadStream(path)) {
+            diskTier.putAtomically(key, inputStream);
+        }
+        catch (IOException e) {
+            throw new InvalidFileException(path, e);
+        }
+
+        synchronized (diskEntries) {
+            Stamp previous = diskEntries.put(key, stamp);
+            if (null != previous) {
+                diskSize -= previous.size;
+            }
+            diskSize += stamp.size;
+
+            Iterator<Map.Entry<String, Stamp>> iterator = diskEntries.entrySet().iterator();
+            while (diskSize > diskCapacity && iterator.hasNext()) {
+                Map.Entry<String, Stamp> eldest = iterator.next();
+                if (eldest.getKey().equals(key)) continue;
+
+                diskSize -= eldest.getValue().size;
+                iterator.remove();
+                diskTier.delete(eldest.getKey());
+            }
+
+            try {
+                return diskTier.openReadStream(key);
+            }
+            catch (InvalidFileException e) {
+                log.warn("磁盘缓存的文件写入后无法读取：{}", key, e);
+
+                diskSize -= stamp.size;
+                diskEntries.remove(key);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 用于判断缓存的内容是否仍与源文件一致。
+     */
+    private static class Stamp {
+        private final long size;
+        private final Instant lastModifiedTime;
+
+        private Stamp(PathMeta meta) {
+            this.size = meta.getSize();
+            this.lastModifiedTime = meta.getLastModifiedTime();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Stamp)) return false;
+
+            Stamp that = (Stamp) o;
+            return size == that.size && Objects.equals(lastModifiedTime, that.lastModifiedTime);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, lastModifiedTime);
+        }
+    }
+
+    private static class MemoryEntry {
+        private final ByteBuffer buffer;
+        private final Stamp stamp;
+
+        private MemoryEntry(ByteBuffer buffer, Stamp stamp) {
+            this.buffer = buffer;
+            this.stamp = stamp;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) return -1;
+
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (0 == len) return 0;
+            if (!buffer.hasRemaining()) return -1;
+
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.min(Math.max(n, 0), buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.ai.southernquiet.filesystem;
+
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.ai.southernquiet.filesystem.FileSystem.PATH_SEPARATOR;
+
+/**
+ * 把大量条目按名称的哈希值分散到多级子目录中，避免单个目录下的条目过多导致查找和列举变慢。
+ * 例如levels=2、width=2时，名称为key的条目位于 {@code root/3c/6e/key}。
+ * <p>
+ * 子目录只由名称决定，因此仍可以在 {@link #getDirectory(String, String)} 中按名称前缀查找条目。
+ */
+@SuppressWarnings("WeakerAccess")
+public class FanOutLayout {
+    /**
+     * 所有条目直接位于根目录下。
+     */
+    public final static FanOutLayout Flat = new FanOutLayout(0, 0);
+
+    private final int levels;
+    private final int width;
+
+    /**
+     * @param levels 子目录的层数，为0时不分散。
+     * @param width  每层子目录名的长度，取自名称MD5的十六进制表示，levels * width不能超过32。
+     */
+    public FanOutLayout(int levels, int width) {
+        if (levels < 0 || width < 0 || (long) levels * width > 32) throw new IllegalArgumentException("levels * width");
+
+        this.levels = levels;
+        this.width = width;
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @param root 根目录
+     * @param name 条目名称，或者用于决定子目录的名称部分（如键值对的key）。
+     * @return 条目所在的目录
+     */
+    public String getDirectory(String root, String name) {
+        if (0 == levels || 0 == width) return root;
+
+        String hash = DigestUtils.md5DigestAsHex(name.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder builder = new StringBuilder(root.length() + levels * (width + 1));
+        builder.append(root);
+        for (int i = 0; i < levels; ++i) {
+            builder.append(PATH_SEPARATOR).append(hash, i * width, (i + 1) * width);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * @param root 根目录
+     * @param name 条目名称
+     * @return 条目的路径
+     */
+    public String getPath(String root, String name) {
+        return getDirectory(root, name) + PATH_SEPARATOR + name;
+    }
+}
@@ -0,0 +1,145 @@
+package com.ai.southernquiet.filesystem;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * 文件内容的校验和，在读写流的同时计算，不需要额外读一遍文件。
+ * <p>
+ * 运行在Java 9及以上时使用CRC32C，否则使用CRC32，两者都由JVM以硬件指令加速。
+ * 校验和的字符串形式带有算法名，如 {@code crc32c:1a2b3c4d}，当前JVM不支持其中的算法时跳过校验。
+ */
+@SuppressWarnings("WeakerAccess")
+public final class FileChecksum {
+    private final static String CRC32C = "crc32c";
+    private final static String CRC32 = "crc32";
+
+    private final static Supplier<Checksum> crc32c = crc32c();
+
+    private FileChecksum() {}
+
+    /**
+     * @return 写入时使用的算法的新实例
+     */
+    public static Checksum newChecksum() {
+        return null != crc32c ? crc32c.get() : new CRC32();
+    }
+
+    /**
+     * 以 {@link #newChecksum()} 的算法计算字节数组的校验和。
+     */
+    public static String of(byte[] bytes) {
+        Checksum checksum = newChecksum();
+        checksum.update(bytes, 0, bytes.length);
+        return format(checksum);
+    }
+
+    /**
+     * @param checksum 由 {@link #newChecksum()} 创建
+     */
+    public static String format(Checksum checksum) {
+        return (checksum instanceof CRC32 ? CRC32 : CRC32C) + ":" + String.format("%08x", checksum.getValue());
+    }
+
+    /**
+     * 包装输入流，读到末尾时比较校验和，不一致则抛出 {@link ChecksumMismatchException}。
+     * 流被skip过或者未读到末尾就关闭时不做比较。
+     *
+     * @param expected 为null或者算法不受支持时，原样返回stream。
+     */
+    public static InputStream verify(InputStream stream, String expected, String path) {
+        if (null == expected) return stream;
+
+        Checksum checksum = forValue(expected);
+        if (null == checksum) return stream;
+
+        return new VerifyingInputStream(stream, checksum, expected, path);
+    }
+
+    private static Checksum forValue(String value) {
+        if (value.startsWith(CRC32C + ":")) return null != crc32c ? crc32c.get() : null;
+        if (value.startsWith(CRC32 + ":")) return new CRC32();
+        return null;
+    }
+
+    private static Supplier<Checksum> crc32c() {
+        try {
+            Class<?> cls = Class.forName("java.util.zip.CRC32C");
+            return () -> {
+                try {
+                    return (Checksum) cls.getDeclaredConstructor().newInstance();
+                }
+                catch (ReflectiveOperationException e) {
+                    throw new RuntimeException(e);
+                }
+            };
+        }
+        catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static class VerifyingInputStream extends FilterInputStream {
+        private final Checksum checksum;
+        private final String expected;
+        private final String path;
+        private boolean skipped;
+        private boolean verified;
+
+        VerifyingInputStream(InputStream in, Checksum checksum, String expected, String path) {
+            super(in);
+            this.checksum = checksum;
+            this.expected = expected;
+            this.path = path;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                verify();
+            }
+            else {
+                checksum.update(b);
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                verify();
+            }
+            else {
+                checksum.update(b, off, n);
+            }
+
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            skipped = true;
+            return in.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void verify() throws ChecksumMismatchException {
+            if (skipped || verified) return;
+            verified = true;
+
+            String actual = format(checksum);
+            if (!actual.equals(expected)) throw new ChecksumMismatchException(path, expected, actual);
+        }
+    }
+}
@@ -6,9 +6,18 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /**
@@ -20,41 +29,97 @@ public interface FileSystem {
     String PATH_SEPARATOR_STRING = String.valueOf(PATH_SEPARATOR);
 
     static <T extends PathMeta> Stream<T> sort(Stream<T> stream, PathMetaSort sort) {
+        return stream.sorted(comparator(sort));
+    }
+
+    static Comparator<PathMeta> comparator(PathMetaSort sort) {
         switch (sort) {
             case Name:
-                return stream.sorted(Comparator.comparing(PathMeta::getName));
+                return Comparator.comparing(PathMeta::getName);
             case NameDesc:
-                return stream.sorted(Comparator.comparing(PathMeta::getName).reversed());
+                return Comparator.comparing(PathMeta::getName).reversed();
 
             case IsDirectory:
-                return stream.sorted(Comparator.comparing(PathMeta::isDirectory));
+                return Comparator.comparing(PathMeta::isDirectory);
             case IsDirectoryDesc:
-                return stream.sorted(Comparator.comparing(PathMeta::isDirectory).reversed());
+                return Comparator.comparing(PathMeta::isDirectory).reversed();
 
             case CreationTime:
-                return stream.sorted(Comparator.comparing(PathMeta::getCreationTime));
+                return Comparator.comparing(PathMeta::getCreationTime);
             case CreationTimeDesc:
-                return stream.sorted(Comparator.comparing(PathMeta::getCreationTime).reversed());
+                return Comparator.comparing(PathMeta::getCreationTime).reversed();
 
             case LastAccessTime:
-                return stream.sorted(Comparator.comparing(PathMeta::getLastAccessTime));
+                return Comparator.comparing(PathMeta::getLastAccessTime);
             case LastAccessTimeDesc:
-                return stream.sorted(Comparator.comparing(PathMeta::getLastAccessTime).reversed());
+                return Comparator.comparing(PathMeta::getLastAccessTime).reversed();
 
             case LastModifiedTime:
-                return stream.sorted(Comparator.comparing(PathMeta::getLastModifiedTime));
+                return Comparator.comparing(PathMeta::getLastModifiedTime);
             case LastModifiedTimeDesc:
-                return stream.sorted(Comparator.comparing(PathMeta::getLastModifiedTime).reversed());
+                return Comparator.comparing(PathMeta::getLastModifiedTime).reversed();
 
             case Size:
-                return stream.sorted(Comparator.comparing(PathMeta::getSize));
+                return Comparator.comparing(PathMeta::getSize);
             case SizeDesc:
-                return stream.sorted(Comparator.comparing(PathMeta::getSize).reversed());
+                return Comparator.comparing(PathMeta::getSize).reversed();
             default:
                 throw new RuntimeException();
         }
     }
 
+    /**
+     * 对流进行排序及分页。有排序且有数量限制时，只在大小为offset+limit的堆中保留候选项，不对整个流排序。
+     * 排序键相同的项再依次按路径、流中的先后排序，使各页的顺序一致，不会重复或遗漏。
+     *
+     * @param offset 开始位置索引。小于0则忽略。
+     * @param limit  数量限制。小于0则忽略。
+     * @param sort   排序选项。为null则不排序。
+     */
+    static <T extends PathMeta> Stream<T> page(Stream<T> stream, int offset, int limit, PathMetaSort sort) {
+        if (null != sort) {
+            Comparator<PathMeta> comparator = comparator(sort).thenComparing(PathMeta::getPath);
+
+            long size = (long) Math.max(offset, 0) + limit;
+            if (limit > 0 && size < Integer.MAX_VALUE) {
+                //堆不是稳定的，以流中的序号区分排序键及路径都相同的项
+                Comparator<Map.Entry<Long, T>> ordered = Comparator.<Map.Entry<Long, T>, T>comparing(Map.Entry::getValue, comparator)
+                    .thenComparing(Map.Entry::getKey);
+
+                PriorityQueue<Map.Entry<Long, T>> heap = new PriorityQueue<>((int) Math.min(size, 1024), ordered.reversed());
+                long[] index = {0};
+                stream.forEach(item -> {
+                    Map.Entry<Long, T> entry = new AbstractMap.SimpleImmutableEntry<>(index[0]++, item);
+
+                    if (heap.size() < size) {
+                        heap.offer(entry);
+                    }
+                    else if (ordered.compare(entry, heap.peek()) < 0) {
+                        heap.poll();
+                        heap.offer(entry);
+                    }
+                });
+
+                List<Map.Entry<Long, T>> list = new ArrayList<>(heap);
+                list.sort(ordered);
+
+                return list.stream().skip(Math.max(offset, 0)).map(Map.Entry::getValue).onClose(stream::close);
+            }
+
+            stream = stream.sorted(comparator);
+        }
+
+        if (offset > 0) {
+            stream = stream.skip(offset);
+        }
+
+        if (limit > 0) {
+            stream = stream.limit(limit);
+        }
+
+        return stream;
+    }
+
     /**
      * 创建目录。目录已存在则忽略。
      *
@@ -87,6 +152,35 @@ public interface FileSystem {
         }
     }
 
+    /**
+     * 以原子的方式创建或替换文件：并发的读取方要么读到旧内容，要么读到完整的新内容，不会读到写了一半的文件。
+     * 默认实现直接调用 {@link #put(String, InputStream)}，适用于写入本身即是原子操作的驱动。
+     *
+     * @param path   要写入的路径
+     * @param stream 输入流
+     * @throws InvalidFileException 无效文件
+     */
+    default void putAtomically(String path, InputStream stream) throws InvalidFileException {
+        put(path, stream);
+    }
+
+    /**
+     * 以原子的方式创建或替换文件。
+     *
+     * @param path 要写入的路径
+     * @param txt  输入文本
+     * @throws InvalidFileException 无效文件
+     * @see #putAtomically(String, InputStream)
+     */
+    default void putAtomically(String path, CharSequence txt) throws InvalidFileException {
+        try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(txt.toString().getBytes(StandardCharsets.UTF_8))) {
+            putAtomically(path, byteArrayInputStream);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * 检查路径是否存在。
      *
@@ -96,6 +190,18 @@ public interface FileSystem {
         return null != meta(path);
     }
 
+    /**
+     * 批量检查路径是否存在。默认实现逐个调用 {@link #exists(String)}，驱动应尽可能并行或合并为一次请求。
+     *
+     * @param paths 路径
+     * @return 以传入的路径为键，按传入的顺序排列。
+     */
+    default Map<String, Boolean> existsAll(Collection<String> paths) {
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        paths.forEach(path -> result.put(path, exists(path)));
+        return result;
+    }
+
     /**
      * 使用UTF8编码读取文件。
      *
@@ -116,7 +222,7 @@ public interface FileSystem {
             return StreamUtils.copyToString(inputStream, charset);
         }
         catch (IOException e) {
-            throw new InvalidFileException(path);
+            throw new InvalidFileException(path, e);
         }
     }
 
@@ -128,6 +234,39 @@ public interface FileSystem {
      */
     InputStream openReadStream(String path) throws InvalidFileException;
 
+    /**
+     * 用通道的方式读取文件中的一段内容，调用方负责通道的关闭。
+     * 默认实现在输入流上跳过position个字节，驱动应尽可能直接定位到起始位置。
+     *
+     * @param path     路径
+     * @param position 开始读取的位置，单位：byte。
+     * @param count    最多读取的字节数。小于0则读到文件末尾。
+     * @throws InvalidFileException 无效文件
+     */
+    default RangedChannel openReadChannel(String path, long position, long count) throws InvalidFileException {
+        InputStream inputStream = openReadStream(path);
+
+        try {
+            long remaining = position;
+            long skipped;
+            while (remaining > 0 && (skipped = inputStream.skip(remaining)) > 0) {
+                remaining -= skipped;
+            }
+        }
+        catch (IOException e) {
+            try {
+                inputStream.close();
+            }
+            catch (IOException ex) {
+                e.addSuppressed(ex);
+            }
+
+            throw new InvalidFileException(path, e);
+        }
+
+        return new RangedChannel(Channels.newChannel(inputStream), count);
+    }
+
     /**
      * 用流的方式写入文件内容，调用方负责流的关闭。
      * <ul>
@@ -187,6 +326,28 @@ public interface FileSystem {
      */
     void delete(String path);
 
+    /**
+     * 批量删除文件或目录。默认实现逐个调用 {@link #delete(String)}，驱动应尽可能并行或合并为一次请求。
+     *
+     * @param paths 路径
+     */
+    default void deleteAll(Collection<String> paths) {
+        paths.forEach(this::delete);
+    }
+
+    /**
+     * 批量创建或替换文件。默认实现逐个调用 {@link #put(String, InputStream)}，驱动应尽可能并行或合并为一次请求。
+     * 遇到无效文件时抛出异常，此前及同时写入的文件不会回滚。
+     *
+     * @param files 以路径为键，输入流为值，输入流由调用方负责关闭。
+     * @throws InvalidFileException 无效文件
+     */
+    default void putAll(Map<String, ? extends InputStream> files) throws InvalidFileException {
+        for (Map.Entry<String, ? extends InputStream> entry : files.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
     /**
      * 刷新文件或目录的 {@link PathMeta#getCreationTime()}。
      *
@@ -216,6 +377,18 @@ public interface FileSystem {
      */
     PathMeta meta(String path);
 
+    /**
+     * 批量获取路径的元信息。默认实现逐个调用 {@link #meta(String)}，驱动应尽可能并行或合并为一次请求。
+     *
+     * @param paths 路径
+     * @return 以传入的路径为键，按传入的顺序排列；路径不存在时，值为null。
+     */
+    default Map<String, ? extends PathMeta> metaAll(Collection<String> paths) {
+        Map<String, PathMeta> result = new LinkedHashMap<>();
+        paths.forEach(path -> result.put(path, meta(path)));
+        return result;
+    }
+
     /**
      * 获取目录下子目录，非递归。
      *
@@ -295,4 +468,41 @@ public interface FileSystem {
      * @throws PathNotFoundException 目录不存在
      */
     Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException;
+
+    /**
+     * 按名称前缀获取目录下子目录，非递归。
+     * 与contains方式的查找不同，驱动可以用有序索引定位，而不需要列举所有子路径。
+     *
+     * @param path   目录路径
+     * @param prefix 目录名的前缀。如果为空，返回所有结果。
+     * @throws PathNotFoundException 目录不存在
+     */
+    default Stream<? extends PathMeta> directoriesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return directories(path, prefix).filter(meta -> null == prefix || meta.getName().startsWith(prefix));
+    }
+
+    /**
+     * 按名称前缀获取目录下文件，非递归。
+     * 与contains方式的查找不同，驱动可以用有序索引定位，而不需要列举所有子路径。
+     *
+     * @param path   目录路径
+     * @param prefix 文件名的前缀。如果为空，返回所有结果。
+     * @throws PathNotFoundException 目录不存在
+     */
+    default Stream<? extends PathMeta> filesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return files(path, prefix).filter(meta -> null == prefix || meta.getName().startsWith(prefix));
+    }
+
+    /**
+     * 订阅目录下直接子路径的变化，非递归。默认实现定期列举目录并比较修改时间。
+     *
+     * @param path     目录路径
+     * @param listener 变化的回调，在后台线程中调用。
+     * @return 关闭即取消订阅
+     * @throws PathNotFoundException 目录不存在
+     * @see PollingPathWatcher
+     */
+    default PathWatcher watch(String path, Consumer<PathEvent> listener) throws PathNotFoundException {
+        return new PollingPathWatcher(this, path, listener);
+    }
 }
@@ -0,0 +1,446 @@
+package com.ai.southernquiet.filesystem;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 缓存 {@link PathMeta} 的FileSystem装饰器，适用于任何驱动。
+ * <ul>
+ * <li>路径不存在的结果同样被缓存，{@link #exists(String)} 因此也不会重复访问存储。</li>
+ * <li>按LRU淘汰，每项在ttl之后过期。</li>
+ * <li>经由本实例的写入、移动、复制、删除会使相关路径及其祖先失效，
+ * 其他进程或绕过本实例的修改只能等待过期，或者经由 {@link #watch(String, Consumer)} 的事件失效。</li>
+ * <li>返回的PathMeta是共享的实例，调用方不应修改。</li>
+ * </ul>
+ */
+@SuppressWarnings("WeakerAccess")
+public class MetaCachedFileSystem implements FileSystem {
+    private final FileSystem fileSystem;
+    private final long ttlNanos;
+    private final static int STRIPES = 64;
+
+    private final Map<String, Entry> entries;
+
+    /**
+     * 与entries同步的有序键集合，按前缀失效子孙时只需访问范围内的键。
+     */
+    private final NavigableSet<String> keys = new TreeSet<>();
+
+    /**
+     * 按路径分段的版本号，用来丢弃与写入并发的读取结果：
+     * selfGenerations在路径自身失效时递增，subtreeGenerations在路径的子孙一并失效时递增。
+     * 读取只在自身及所有祖先的版本都未变化时写入缓存，无关路径的失效不会影响它。
+     */
+    private final long[] selfGenerations = new long[STRIPES];
+    private final long[] subtreeGenerations = new long[STRIPES];
+
+    /**
+     * @param fileSystem 被装饰的驱动
+     * @param capacity   缓存的路径数量上限
+     * @param ttl        缓存项的有效期
+     */
+    public MetaCachedFileSystem(FileSystem fileSystem, int capacity, Duration ttl) {
+        this.fileSystem = fileSystem;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private final static long serialVersionUID = -5046528513906342870L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > capacity) {
+                    keys.remove(eldest.getKey());
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    public FileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public PathMeta meta(String path) {
+        NormalizedPath normalizedPath = NormalizedPath.of(path);
+        String key = normalizedPath.toString();
+        long now = System.nanoTime();
+        long stamp;
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (null != entry) {
+                if (now - entry.loadedAt < ttlNanos) return entry.meta;
+
+                remove(key);
+            }
+
+            stamp = stamp(normalizedPath);
+        }
+
+        PathMeta meta = fileSystem.meta(path);
+
+        synchronized (entries) {
+            if (stamp == stamp(normalizedPath)) {
+                put(key, new Entry(meta, now));
+            }
+        }
+
+        return meta;
+    }
+
+    /**
+     * 未命中缓存的路径合并为一次 {@link FileSystem#metaAll(Collection)} 调用。
+     */
+    @Override
+    public Map<String, PathMeta> metaAll(Collection<String> paths) {
+        Map<String, PathMeta> result = new LinkedHashMap<>();
+        List<String> misses = new ArrayList<>();
+        Map<String, Long> stamps = new HashMap<>();
+        long now = System.nanoTime();
+
+        synchronized (entries) {
+            for (String path : paths) {
+                NormalizedPath normalizedPath = NormalizedPath.of(path);
+                Entry entry = entries.get(normalizedPath.toString());
+                if (null != entry && now - entry.loadedAt < ttlNanos) {
+                    result.put(path, entry.meta);
+                }
+                else {
+                    result.put(path, null);
+                    misses.add(path);
+                    stamps.put(path, stamp(normalizedPath));
+                }
+            }
+        }
+
+        if (misses.isEmpty()) return result;
+
+        Map<String, ? extends PathMeta> loaded = fileSystem.metaAll(misses);
+        result.putAll(loaded);
+
+        synchronized (entries) {
+            loaded.forEach((path, meta) -> {
+                NormalizedPath normalizedPath = NormalizedPath.of(path);
+                Long stamp = stamps.get(path);
+                if (null != stamp && stamp == stamp(normalizedPath)) {
+                    put(normalizedPath.toString(), new Entry(meta, now));
+                }
+            });
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Boolean> existsAll(Collection<String> paths) {
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        metaAll(paths).forEach((path, meta) -> result.put(path, null != meta));
+        return result;
+    }
+
+    @Override
+    public void createDirectory(String path) {
+        try {
+            fileSystem.createDirectory(path);
+        }
+        finally {
+            invalidate(path, false);
+        }
+    }
+
+    @Override
+    public void put(String path, InputStream stream) throws InvalidFileException {
+        try {
+            fileSystem.put(path, stream);
+        }
+        finally {
+            invalidate(path, false);
+        }
+    }
+
+    @Override
+    public void putAtomically(String path, InputStream stream) throws InvalidFileException {
+        try {
+            fileSystem.putAtomically(path, stream);
+        }
+        finally {
+            invalidate(path, false);
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, ? extends InputStream> files) throws InvalidFileException {
+        try {
+            fileSystem.putAll(files);
+        }
+        finally {
+            files.keySet().forEach(path -> invalidate(path, false));
+        }
+    }
+
+    @Override
+    public InputStream openReadStream(String path) throws InvalidFileException {
+        return fileSystem.openReadStream(path);
+    }
+
+    @Override
+    public RangedChannel openReadChannel(String path, long position, long count) throws InvalidFileException {
+        return fileSystem.openReadChannel(path, position, count);
+    }
+
+    /**
+     * 打开时和关闭时各失效一次：打开可能创建了文件，关闭前写入的内容改变了文件大小。
+     */
+    @Override
+    public OutputStream openWriteStream(String path) throws InvalidFileException {
+        OutputStream outputStream;
+        try {
+            outputStream = fileSystem.openWriteStream(path);
+        }
+        finally {
+            invalidate(path, false);
+        }
+
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                }
+                finally {
+                    invalidate(path, false);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void move(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        try {
+            fileSystem.move(source, destination, replaceExisting);
+        }
+        finally {
+            invalidate(source, true);
+            invalidate(destination, true);
+        }
+    }
+
+    @Override
+    public void copy(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        try {
+            fileSystem.copy(source, destination, replaceExisting);
+        }
+        finally {
+            invalidate(source, true);
+            invalidate(destination, true);
+        }
+    }
+
+    @Override
+    public void delete(String path) {
+        try {
+            fileSystem.delete(path);
+        }
+        finally {
+            invalidate(path, true);
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        try {
+            fileSystem.deleteAll(paths);
+        }
+        finally {
+            paths.forEach(path -> invalidate(path, true));
+        }
+    }
+
+    @Override
+    public void touchCreation(String path) {
+        try {
+            fileSystem.touchCreation(path);
+        }
+        finally {
+            invalidate(path, false);
+        }
+    }
+
+    @Override
+    public void touchLastModified(String path) {
+        try {
+            fileSystem.touchLastModified(path);
+        }
+        finally {
+            invalidate(path, false);
+        }
+    }
+
+    @Override
+    public void touchLastAccess(String path) {
+        try {
+            fileSystem.touchLastAccess(path);
+        }
+        finally {
+            invalidate(path, false);
+        }
+    }
+
+    @Override
+    public Stream<? extends PathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return fileSystem.directories(path, search, recursive, offset, limit, sort);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return fileSystem.files(path, search, recursive, offset, limit, sort);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> directoriesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return fileSystem.directoriesWithPrefix(path, prefix);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> filesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return fileSystem.filesWithPrefix(path, prefix);
+    }
+
+    /**
+     * 订阅到的变化同时使缓存失效。
+     */
+    @Override
+    public PathWatcher watch(String path, Consumer<PathEvent> listener) throws PathNotFoundException {
+        return fileSystem.watch(path, event -> {
+            invalidate(event.getPath(), PathEvent.Kind.Modified != event.getKind());
+            listener.accept(event);
+        });
+    }
+
+    /**
+     * 使路径及其所有祖先的缓存失效，祖先可能因为路径的创建而从不存在变为存在。
+     *
+     * @param descendants 如果true，路径下所有子孙的缓存也一并失效。
+     */
+    public void invalidate(String path, boolean descendants) {
+        NormalizedPath normalizedPath = NormalizedPath.of(path);
+        String key = normalizedPath.toString();
+
+        synchronized (entries) {
+            ++selfGenerations[stripe(key)];
+            remove(key);
+
+            if (descendants) {
+                ++subtreeGenerations[stripe(key)];
+
+                if (PATH_SEPARATOR_STRING.equals(key)) {
+                    entries.clear();
+                    keys.clear();
+                    return;
+                }
+
+                // 子孙的键都以key + "/"开头，按字典序落在[key + "/", key + "0")之间
+                NavigableSet<String> range = keys.subSet(key + PATH_SEPARATOR_STRING, true, key + (char) (PATH_SEPARATOR + 1), false);
+                range.forEach(entries::remove);
+                range.clear();
+            }
+
+            for (String ancestor : ancestors(normalizedPath)) {
+                ++selfGenerations[stripe(ancestor)];
+                remove(ancestor);
+            }
+        }
+    }
+
+    /**
+     * 清空缓存。
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            for (int i = 0; i < STRIPES; ++i) {
+                ++selfGenerations[i];
+                ++subtreeGenerations[i];
+            }
+
+            entries.clear();
+            keys.clear();
+        }
+    }
+
+    /**
+     * 路径自身及所有祖先的版本之和。版本只增不减，和不变即说明其中没有任何一个发生变化。调用方须持有entries的锁。
+     */
+    private long stamp(NormalizedPath path) {
+        String key = path.toString();
+        long stamp = selfGenerations[stripe(key)] + subtreeGenerations[stripe(key)];
+        for (String ancestor : ancestors(path)) {
+            stamp += subtreeGenerations[stripe(ancestor)];
+        }
+
+        return stamp;
+    }
+
+    /**
+     * @return 从根开始的所有祖先，不含路径自身。
+     */
+    private static List<String> ancestors(NormalizedPath path) {
+        List<String> result = new ArrayList<>();
+        if (PATH_SEPARATOR_STRING.equals(path.toString())) return result;
+
+        result.add(PATH_SEPARATOR_STRING);
+
+        StringBuilder ancestor = new StringBuilder();
+        for (String parentName : path.getParentNames()) {
+            ancestor.append(PATH_SEPARATOR_STRING).append(parentName);
+            result.add(ancestor.toString());
+        }
+
+        return result;
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    private void put(String key, Entry entry) {
+        keys.add(key);
+        entries.put(key, entry);
+    }
+
+    private void remove(String key) {
+        if (null != entries.remove(key)) {
+            keys.remove(key);
+        }
+    }
+
+    private static class Entry {
+        private final PathMeta meta;
+        private final long loadedAt;
+
+        private Entry(PathMeta meta, long loadedAt) {
+            this.meta = meta;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -4,8 +4,10 @@ import org.springframework.util.StringUtils;
 
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import static com.ai.southernquiet.filesystem.FileSystem.PATH_SEPARATOR;
 import static com.ai.southernquiet.filesystem.FileSystem.PATH_SEPARATOR_STRING;
 
 
@@ -16,52 +18,150 @@ import static com.ai.southernquiet.filesystem.FileSystem.PATH_SEPARATOR_STRING;
 public class NormalizedPath implements Serializable {
     private final static long serialVersionUID = -8700923055584230554L;
 
-    public final static NormalizedPath root = new NormalizedPath("");
+    private final static String[] EMPTY_NAMES = new String[0];
+
+    public final static NormalizedPath root = new NormalizedPath("").share();
+
+    /**
+     * 驻留池的容量，为0时不驻留。
+     *
+     * @see com.ai.southernquiet.FrameworkAutoConfiguration.FileSystemProperties#pathInternCapacity
+     */
+    private static int internCapacity = 0;
+    private final static ConcurrentMap<String, NormalizedPath> internPool = new ConcurrentHashMap<>();
+
+    public static int getInternCapacity() {
+        return internCapacity;
+    }
+
+    public static void setInternCapacity(int internCapacity) {
+        NormalizedPath.internCapacity = internCapacity;
+
+        if (internPool.size() > internCapacity) {
+            internPool.clear();
+        }
+    }
+
+    /**
+     * 获取规格化的路径，驻留池启用时优先复用池中的实例。
+     * 池满后不再加入新的路径，已驻留的实例被多处共享，调用其setter会抛出 {@link UnsupportedOperationException}。
+     */
+    public static NormalizedPath of(String path) {
+        if (null == path || 0 == internCapacity) return new NormalizedPath(path);
+
+        NormalizedPath normalizedPath = internPool.get(path);
+        if (null != normalizedPath) return normalizedPath;
+
+        normalizedPath = new NormalizedPath(path);
+        if (internPool.size() < internCapacity) {
+            NormalizedPath previous = internPool.putIfAbsent(path, normalizedPath.share());
+            if (null != previous) return previous;
+        }
+
+        return normalizedPath;
+    }
 
     public NormalizedPath(String path) {
-        if (!StringUtils.hasText(path)) return;
-        if ("".equalsIgnoreCase(path)) return;
+        if (null == path) return;
 
-        String p = path.replace("\\", PATH_SEPARATOR_STRING);
+        int length = path.length();
+        int count = 0;
+        boolean canonical = length > 0 && PATH_SEPARATOR == path.charAt(0);
 
-        String[] pathElements = Stream.of(p.split(PATH_SEPARATOR_STRING))
-            .filter(item -> StringUtils.hasText(item))
-            .toArray(String[]::new);
+        // 第一遍只计数，以便直接分配大小确定的数组；同时判断输入是否已经是规格化的形式。
+        boolean text = false;
+        for (int i = 0; i <= length; ++i) {
+            char c = i < length ? path.charAt(i) : PATH_SEPARATOR;
 
-        if (0 == pathElements.length) return;
-        if (1 == pathElements.length) {
-            this.setName(pathElements[0]);
-            return;
+            if (isSeparator(c)) {
+                if (text) {
+                    ++count;
+                }
+                else if (i > 0) {
+                    canonical = false;
+                }
+
+                if ('\\' == c) canonical = false;
+                text = false;
+            }
+            else if (!text && !Character.isWhitespace(c)) {
+                text = true;
+            }
         }
 
-        int lastIndex = pathElements.length - 1;
-        this.setParentNames(Arrays.copyOf(pathElements, lastIndex));
-        this.setName(pathElements[lastIndex]);
+        if (0 == count) return;
+
+        String[] names = new String[count];
+        int index = 0;
+        int start = 0;
+        text = false;
+        for (int i = 0; i <= length; ++i) {
+            char c = i < length ? path.charAt(i) : PATH_SEPARATOR;
+
+            if (isSeparator(c)) {
+                if (text) {
+                    names[index++] = path.substring(start, i);
+                }
+
+                start = i + 1;
+                text = false;
+            }
+            else if (!text && !Character.isWhitespace(c)) {
+                text = true;
+            }
+        }
+
+        int lastIndex = count - 1;
+        this.parentNames = 0 == lastIndex ? EMPTY_NAMES : Arrays.copyOf(names, lastIndex);
+        this.name = names[lastIndex];
+
+        if (canonical) {
+            this.value = path;
+        }
     }
 
     public NormalizedPath(String[] pathElements) {
         if (0 == pathElements.length) return;
 
         int lastIndex = pathElements.length - 1;
-        this.setParentNames(Arrays.copyOf(pathElements, lastIndex));
-        this.setName(pathElements[lastIndex]);
+        this.parentNames = Arrays.copyOf(pathElements, lastIndex);
+        this.name = pathElements[lastIndex];
+    }
+
+    private NormalizedPath(String[] parentNames, String name, String value) {
+        this.parentNames = parentNames;
+        this.name = name;
+        this.value = value;
     }
 
     /**
      * 路径父级的名称集合。当前路径是根路径或一级路径时，为空集合。
      */
-    private String[] parentNames = new String[0];
+    private String[] parentNames = EMPTY_NAMES;
     /**
      * 路径名称。当前路径是根路径时，为空字符串。
      */
     private String name = "";
 
+    private transient String value;
+    private transient int hash;
+    /**
+     * 驻留池中的实例及 {@link #root} 被多处共享，不能修改。
+     */
+    private transient boolean shared;
+
+    /**
+     * @return 副本，修改它不影响当前路径。
+     */
     public String[] getParentNames() {
-        return parentNames;
+        return 0 == parentNames.length ? parentNames : parentNames.clone();
     }
 
     public void setParentNames(String[] parentNames) {
-        this.parentNames = parentNames;
+        checkNotShared();
+        this.parentNames = parentNames.clone();
+        this.value = null;
+        this.hash = 0;
     }
 
     public String getName() {
@@ -69,24 +169,33 @@ public class NormalizedPath implements Serializable {
     }
 
     public void setName(String name) {
+        checkNotShared();
         this.name = name;
+        this.value = null;
+        this.hash = 0;
     }
 
     public String getParent() {
+        if (0 == parentNames.length) {
+            return StringUtils.isEmpty(name) ? "" : PATH_SEPARATOR_STRING;
+        }
+
+        String path = toString();
+        return path.substring(0, path.length() - name.length() - 1);
+    }
+
+    public NormalizedPath getParentPath() {
         switch (parentNames.length) {
             case 0:
-                return StringUtils.isEmpty(name) ? "" : PATH_SEPARATOR_STRING;
+                return root;
             case 1:
-                return PATH_SEPARATOR_STRING + parentNames[0];
+                return new NormalizedPath(EMPTY_NAMES, parentNames[0], null);
             default:
-                return PATH_SEPARATOR_STRING + String.join(PATH_SEPARATOR_STRING, parentNames);
+                int lastIndex = parentNames.length - 1;
+                return new NormalizedPath(Arrays.copyOf(parentNames, lastIndex), parentNames[lastIndex], getParent());
         }
     }
 
-    public NormalizedPath getParentPath() {
-        return new NormalizedPath(getParentNames());
-    }
-
     /**
      * 规格化过的路径名，以 {@link FileSystem#PATH_SEPARATOR} 开头且不以其结尾。
      *
@@ -94,8 +203,20 @@ public class NormalizedPath implements Serializable {
      */
     @Override
     public String toString() {
-        String parent = getParent();
-        return parent.equals(PATH_SEPARATOR_STRING) ? PATH_SEPARATOR_STRING + name : parent + PATH_SEPARATOR_STRING + name;
+        String v = value;
+
+        if (null == v) {
+            StringBuilder builder = new StringBuilder();
+            for (String parentName : parentNames) {
+                builder.append(PATH_SEPARATOR).append(parentName);
+            }
+            builder.append(PATH_SEPARATOR).append(name);
+
+            v = builder.toString();
+            value = v;
+        }
+
+        return v;
     }
 
     @SuppressWarnings("SimplifiableIfStatement")
@@ -111,6 +232,26 @@ public class NormalizedPath implements Serializable {
 
     @Override
     public int hashCode() {
-        return this.toString().hashCode();
+        int h = hash;
+
+        if (0 == h) {
+            h = toString().hashCode();
+            hash = h;
+        }
+
+        return h;
+    }
+
+    private NormalizedPath share() {
+        this.shared = true;
+        return this;
+    }
+
+    private void checkNotShared() {
+        if (shared) throw new UnsupportedOperationException("共享的路径实例不能修改：" + this);
+    }
+
+    private static boolean isSeparator(char c) {
+        return PATH_SEPARATOR == c || '\\' == c;
     }
 }
@@ -0,0 +1,47 @@
+package com.ai.southernquiet.filesystem;
+
+import java.io.Serializable;
+
+/**
+ * 被订阅目录下的路径变化。
+ *
+ * @see FileSystem#watch(String, java.util.function.Consumer)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class PathEvent implements Serializable {
+    private final static long serialVersionUID = -1548304861286263375L;
+
+    public enum Kind {
+        Created,
+        Modified,
+        Deleted,
+        /**
+         * 有事件丢失，订阅方应该重新列举目录。此时path是被订阅的目录。
+         */
+        Overflow
+    }
+
+    private Kind kind;
+    /**
+     * 发生变化的路径，规格化过。
+     */
+    private String path;
+
+    public PathEvent(Kind kind, String path) {
+        this.kind = kind;
+        this.path = path;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + path;
+    }
+}
@@ -42,7 +42,7 @@ public class PathMeta implements Serializable {
     }
 
     public PathMeta(String path, InputStream stream) {
-        this(new NormalizedPath(path), stream);
+        this(NormalizedPath.of(path), stream);
     }
 
     public PathMeta(NormalizedPath normalizedPath) {
@@ -50,7 +50,7 @@ public class PathMeta implements Serializable {
     }
 
     public PathMeta(String path) {
-        this(new NormalizedPath(path), null);
+        this(NormalizedPath.of(path), null);
     }
 
     /**
@@ -78,12 +78,17 @@ public class PathMeta implements Serializable {
      * 如果路径指向文件的话，表示文件大小，单位：byte。
      */
     private long size;
+    /**
+     * 写入时计算的文件内容校验和，见 {@link FileChecksum}。驱动未启用校验或者文件被追加过时为null。
+     */
+    private String checksum;
 
     /**
-     * 路径名
+     * 路径名，与 {@link NormalizedPath#toString()} 一致。
      */
     public String getPath() {
-        return getParent() + PATH_SEPARATOR_STRING + name;
+        String parent = getParent();
+        return null != parent && parent.endsWith(PATH_SEPARATOR_STRING) ? parent + name : parent + PATH_SEPARATOR_STRING + name;
     }
 
     public Map<String, Object> toMap() {
@@ -95,6 +100,7 @@ public class PathMeta implements Serializable {
         map.put("lastModifiedTime", getLastModifiedTime());
         map.put("lastAccessTime", getLastAccessTime());
         map.put("size", getSize());
+        map.put("checksum", getChecksum());
         return map;
     }
 
@@ -153,4 +159,12 @@ public class PathMeta implements Serializable {
     public void setSize(long size) {
         this.size = size;
     }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package com.ai.southernquiet.filesystem;
+
+/**
+ * 目录变化的订阅，关闭即取消订阅。
+ *
+ * @see FileSystem#watch(String, java.util.function.Consumer)
+ */
+public interface PathWatcher extends AutoCloseable {
+    @Override
+    void close();
+}
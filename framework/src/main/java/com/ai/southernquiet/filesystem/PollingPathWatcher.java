@@ -0,0 +1,121 @@
+package com.ai.southernquiet.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 定期列举目录，通过比较子路径的修改时间发现变化。驱动没有原生的变化通知时使用。
+ */
+public class PollingPathWatcher implements PathWatcher {
+    private final static Logger log = LoggerFactory.getLogger(PollingPathWatcher.class);
+
+    /**
+     * 默认的轮询间隔，可以被外部配置覆盖。
+     *
+     * @see com.ai.southernquiet.FrameworkAutoConfiguration.FileSystemProperties#watchPollingInterval
+     */
+    private static Duration defaultInterval = Duration.ofSeconds(5);
+
+    private static ScheduledExecutorService scheduler;
+
+    public static Duration getDefaultInterval() {
+        return defaultInterval;
+    }
+
+    public static void setDefaultInterval(Duration defaultInterval) {
+        PollingPathWatcher.defaultInterval = defaultInterval;
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (null == scheduler) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sq-fs-watch-polling-");
+            threadFactory.setDaemon(true);
+            scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        }
+
+        return scheduler;
+    }
+
+    private FileSystem fileSystem;
+    private String path;
+    private Consumer<PathEvent> listener;
+    private Map<String, Instant> snapshot;
+    private ScheduledFuture<?> future;
+
+    public PollingPathWatcher(FileSystem fileSystem, String path, Consumer<PathEvent> listener) throws PathNotFoundException {
+        this(fileSystem, path, listener, defaultInterval);
+    }
+
+    public PollingPathWatcher(FileSystem fileSystem, String path, Consumer<PathEvent> listener, Duration interval) throws PathNotFoundException {
+        this.fileSystem = fileSystem;
+        this.path = path;
+        this.listener = listener;
+        this.snapshot = list();
+
+        long millis = interval.toMillis();
+        this.future = getScheduler().scheduleWithFixedDelay(this::poll, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        future.cancel(false);
+    }
+
+    private void poll() {
+        Map<String, Instant> current;
+        try {
+            current = list();
+        }
+        catch (Exception e) {
+            log.warn("轮询目录{}失败", path, e);
+            return;
+        }
+
+        current.forEach((p, lastModifiedTime) -> {
+            if (!snapshot.containsKey(p)) {
+                notify(new PathEvent(PathEvent.Kind.Created, p));
+            }
+            else if (!Objects.equals(snapshot.get(p), lastModifiedTime)) {
+                notify(new PathEvent(PathEvent.Kind.Modified, p));
+            }
+        });
+
+        snapshot.keySet().stream()
+            .filter(p -> !current.containsKey(p))
+            .forEach(p -> notify(new PathEvent(PathEvent.Kind.Deleted, p)));
+
+        snapshot = current;
+    }
+
+    private void notify(PathEvent event) {
+        try {
+            listener.accept(event);
+        }
+        catch (Exception e) {
+            log.warn("处理目录变化{}失败", event, e);
+        }
+    }
+
+    private Map<String, Instant> list() throws PathNotFoundException {
+        Map<String, Instant> result = new HashMap<>();
+
+        try (Stream<? extends PathMeta> directories = fileSystem.directories(path); Stream<? extends PathMeta> files = fileSystem.files(path)) {
+            Stream.concat(directories, files).forEach(meta -> result.put(NormalizedPath.of(meta.getPath()).toString(), meta.getLastModifiedTime()));
+        }
+
+        return result;
+    }
+}
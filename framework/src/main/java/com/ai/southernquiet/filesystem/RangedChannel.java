@@ -0,0 +1,108 @@
+package com.ai.southernquiet.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 最多读取底层通道中count个字节的只读通道，关闭时同时关闭底层通道。
+ *
+ * @see FileSystem#openReadChannel(String, long, long)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class RangedChannel implements ReadableByteChannel {
+    private final static int BUFFER_SIZE = 8192;
+
+    private ReadableByteChannel channel;
+    private long remaining;
+
+    /**
+     * @param channel 已定位到起始位置的底层通道
+     * @param count   最多读取的字节数。小于0则读到底层通道结束。
+     */
+    public RangedChannel(ReadableByteChannel channel, long count) {
+        this.channel = channel;
+        this.remaining = count < 0 ? Long.MAX_VALUE : count;
+    }
+
+    /**
+     * 剩余可读取的字节数上限。
+     */
+    public long getRemaining() {
+        return remaining;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (remaining <= 0) return -1;
+
+        int limit = dst.limit();
+        if (dst.remaining() > remaining) {
+            dst.limit(dst.position() + (int) remaining);
+        }
+
+        int count;
+        try {
+            count = channel.read(dst);
+        }
+        finally {
+            dst.limit(limit);
+        }
+
+        if (count > 0) {
+            remaining -= count;
+        }
+
+        return count;
+    }
+
+    /**
+     * 把剩余内容写入目标通道。底层是 {@link FileChannel} 时使用transferTo，由操作系统完成零拷贝。
+     *
+     * @return 写入的字节数
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long total = 0;
+
+        if (channel instanceof FileChannel) {
+            FileChannel fileChannel = (FileChannel) channel;
+
+            while (remaining > 0) {
+                long count = fileChannel.transferTo(fileChannel.position(), remaining, target);
+                if (count <= 0) break;
+
+                fileChannel.position(fileChannel.position() + count);
+                remaining -= count;
+                total += count;
+            }
+
+            return total;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        int count;
+        while ((count = read(buffer)) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            buffer.clear();
+
+            total += count;
+        }
+
+        return total;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,84 @@
+package com.ai.southernquiet.filesystem;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 非阻塞的文件系统，语义与 {@link FileSystem} 一致，可以在事件循环线程中直接调用。
+ * 异常通过错误信号传递，类型与 {@link FileSystem} 中对应的方法相同。
+ *
+ * @see ReactiveFileSystemAdapter
+ */
+@SuppressWarnings({"unused"})
+public interface ReactiveFileSystem {
+    /**
+     * @see FileSystem#createDirectory(String)
+     */
+    Mono<Void> createDirectory(String path);
+
+    /**
+     * 如果文件未存在，则创建；否则替换。替换是原子的，读取方不会看到写了一半的内容。数据写入后由实现负责释放。
+     *
+     * @see FileSystem#putAtomically(String, java.io.InputStream)
+     */
+    Mono<Void> put(String path, Publisher<DataBuffer> data);
+
+    /**
+     * 以Append的方式写入，文件不存在时自动创建。数据写入后由实现负责释放。
+     *
+     * @see FileSystem#openWriteStream(String)
+     */
+    Mono<Void> append(String path, Publisher<DataBuffer> data);
+
+    /**
+     * 读取文件内容，订阅方负责释放数据。
+     *
+     * @see FileSystem#openReadStream(String)
+     */
+    Flux<DataBuffer> read(String path);
+
+    /**
+     * 读取文件中的一段内容，订阅方负责释放数据。
+     *
+     * @see FileSystem#openReadChannel(String, long, long)
+     */
+    Flux<DataBuffer> read(String path, long position, long count);
+
+    /**
+     * @see FileSystem#exists(String)
+     */
+    Mono<Boolean> exists(String path);
+
+    /**
+     * @return 路径不存在时，返回空的Mono。
+     * @see FileSystem#meta(String)
+     */
+    Mono<PathMeta> meta(String path);
+
+    /**
+     * @see FileSystem#move(String, String, boolean)
+     */
+    Mono<Void> move(String source, String destination, boolean replaceExisting);
+
+    /**
+     * @see FileSystem#copy(String, String, boolean)
+     */
+    Mono<Void> copy(String source, String destination, boolean replaceExisting);
+
+    /**
+     * @see FileSystem#delete(String)
+     */
+    Mono<Void> delete(String path);
+
+    /**
+     * @see FileSystem#directories(String, String, boolean, int, int, PathMetaSort)
+     */
+    Flux<PathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort);
+
+    /**
+     * @see FileSystem#files(String, String, boolean, int, int, PathMetaSort)
+     */
+    Flux<PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort);
+}
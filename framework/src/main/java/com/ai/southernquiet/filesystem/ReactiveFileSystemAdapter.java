@@ -0,0 +1,177 @@
+package com.ai.southernquiet.filesystem;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+
+/**
+ * 把阻塞的 {@link FileSystem} 适配为 {@link ReactiveFileSystem}，所有阻塞调用都在有界的调度器上执行。
+ * <ul>
+ * <li>写入时先把数据异步写入本地临时文件，再在调度器上交给驱动，避免在发布数据的线程上阻塞。</li>
+ * </ul>
+ */
+@SuppressWarnings("WeakerAccess")
+public class ReactiveFileSystemAdapter implements ReactiveFileSystem {
+    protected FileSystem fileSystem;
+    protected Scheduler scheduler;
+    protected DataBufferFactory dataBufferFactory;
+    protected int bufferSize;
+
+    /**
+     * @param scheduler  执行阻塞调用的调度器，应该是有界的。
+     * @param bufferSize 读取时每个DataBuffer的大小，单位：byte。
+     */
+    public ReactiveFileSystemAdapter(FileSystem fileSystem, Scheduler scheduler, DataBufferFactory dataBufferFactory, int bufferSize) {
+        this.fileSystem = fileSystem;
+        this.scheduler = scheduler;
+        this.dataBufferFactory = dataBufferFactory;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public Mono<Void> createDirectory(String path) {
+        return run(() -> fileSystem.createDirectory(path));
+    }
+
+    @Override
+    public Mono<Void> put(String path, Publisher<DataBuffer> data) {
+        return spool(data, tmp -> {
+            try (InputStream inputStream = new FileInputStream(tmp.toFile())) {
+                fileSystem.putAtomically(path, inputStream);
+            }
+        });
+    }
+
+    @Override
+    public Mono<Void> append(String path, Publisher<DataBuffer> data) {
+        return spool(data, tmp -> {
+            try (OutputStream outputStream = fileSystem.openWriteStream(path)) {
+                Files.copy(tmp, outputStream);
+            }
+        });
+    }
+
+    @Override
+    public Flux<DataBuffer> read(String path) {
+        return DataBufferUtils.readInputStream(() -> fileSystem.openReadStream(path), dataBufferFactory, bufferSize)
+            .subscribeOn(scheduler);
+    }
+
+    @Override
+    public Flux<DataBuffer> read(String path, long position, long count) {
+        return DataBufferUtils.readByteChannel(() -> fileSystem.openReadChannel(path, position, count), dataBufferFactory, bufferSize)
+            .subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<Boolean> exists(String path) {
+        return call(() -> fileSystem.exists(path));
+    }
+
+    @Override
+    public Mono<PathMeta> meta(String path) {
+        return call(() -> fileSystem.meta(path));
+    }
+
+    @Override
+    public Mono<Void> move(String source, String destination, boolean replaceExisting) {
+        return run(() -> fileSystem.move(source, destination, replaceExisting));
+    }
+
+    @Override
+    public Mono<Void> copy(String source, String destination, boolean replaceExisting) {
+        return run(() -> fileSystem.copy(source, destination, replaceExisting));
+    }
+
+    @Override
+    public Mono<Void> delete(String path) {
+        return run(() -> fileSystem.delete(path));
+    }
+
+    @Override
+    public Flux<PathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) {
+        return Flux.defer(() -> {
+            try {
+                return Flux.fromStream(fileSystem.directories(path, search, recursive, offset, limit, sort).map(PathMeta.class::cast));
+            }
+            catch (PathNotFoundException e) {
+                return Flux.<PathMeta>error(e);
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Flux<PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) {
+        return Flux.defer(() -> {
+            try {
+                return Flux.fromStream(fileSystem.files(path, search, recursive, offset, limit, sort).map(PathMeta.class::cast));
+            }
+            catch (PathNotFoundException e) {
+                return Flux.<PathMeta>error(e);
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    protected <T> Mono<T> call(Callable<T> callable) {
+        return Mono.fromCallable(callable).subscribeOn(scheduler);
+    }
+
+    protected Mono<Void> run(BlockingAction action) {
+        return Mono.<Void>fromCallable(() -> {
+            action.run();
+            return null;
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * 把数据异步写入临时文件，再在调度器上处理临时文件，处理后删除。临时文件的创建及删除也在调度器上执行。
+     */
+    protected Mono<Void> spool(Publisher<DataBuffer> data, TempFileAction action) {
+        return Mono.using(
+            () -> Files.createTempFile("sq_reactive_spool", ""),
+            tmp -> Mono.using(
+                () -> AsynchronousFileChannel.open(tmp, StandardOpenOption.WRITE),
+                channel -> DataBufferUtils.write(data, channel, 0).doOnNext(DataBufferUtils::release).then(),
+                channel -> {
+                    try {
+                        channel.close();
+                    }
+                    catch (Exception e) {
+                        //pass
+                    }
+                }
+            ).then(run(() -> action.accept(tmp))),
+            tmp -> {
+                try {
+                    Files.deleteIfExists(tmp);
+                }
+                catch (Exception e) {
+                    //pass
+                }
+            }
+        ).subscribeOn(scheduler);
+    }
+
+    @FunctionalInterface
+    protected interface BlockingAction {
+        void run() throws Exception;
+    }
+
+    @FunctionalInterface
+    protected interface TempFileAction {
+        void accept(Path tmp) throws Exception;
+    }
+}
@@ -0,0 +1,246 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * 按内容寻址的文件池，使相同内容只存储一次。
+ * <ul>
+ * <li>写入时计算SHA-256，内容已存在则丢弃新写入的数据，再把目标路径硬链接到池中的文件。</li>
+ * <li>复制文件只创建硬链接，不复制数据。</li>
+ * <li>引用计数即操作系统的链接数，只剩池中一个链接的文件会被定期清理。</li>
+ * <li>链接的路径共享同一份时间，写入已存在的内容时刷新为当前时间。</li>
+ * <li>共享的文件被原地修改（追加、刷新时间）前，先复制一份解除共享。</li>
+ * <li>硬链接要求与工作目录在同一文件存储上，不支持时退化为复制。</li>
+ * </ul>
+ */
+class BlobStore {
+    private final static Logger log = LoggerFactory.getLogger(BlobStore.class);
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path root;
+    /**
+     * 链接与清理互斥，避免刚被链接的文件在链接前被当作无引用清理掉。
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private ScheduledExecutorService collector;
+
+    /**
+     * @param collectInterval 清理无引用文件的间隔，为null则不定期清理。
+     */
+    BlobStore(Path root, Duration collectInterval) throws IOException {
+        this.root = root;
+        Files.createDirectories(root);
+
+        if (null != collectInterval) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sq-local-fs-blob-collector-");
+            threadFactory.setDaemon(true);
+            collector = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            collector.scheduleWithFixedDelay(() -> {
+                try {
+                    collect();
+                }
+                catch (Exception e) {
+                    log.warn("清理无引用的文件失败", e);
+                }
+            }, collectInterval.toMillis(), collectInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 把流写入池中，再以原子替换的方式链接到target。
+     *
+     * @param link target的同目录临时路径，用于原子替换。
+     */
+    void put(Path target, Path link, InputStream stream, boolean sync) throws IOException {
+        Path tmp = root.resolve(UUID.randomUUID() + LocalFileSystem.TEMP_FILE_SUFFIX);
+
+        try {
+            String hash = write(tmp, stream, sync);
+            Path blob = getBlobPath(hash);
+
+            lock.readLock().lock();
+            try {
+                if (Files.notExists(blob)) {
+                    Files.createDirectories(blob.getParent());
+                    try {
+                        Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    catch (FileAlreadyExistsException e) {
+                        //并发写入了相同的内容
+                    }
+                }
+
+                linkOrCopy(blob, link);
+                touch(link);
+                Files.move(link, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+            Files.deleteIfExists(link);
+        }
+    }
+
+    /**
+     * 以硬链接的方式复制文件。
+     */
+    void copy(Path src, Path target, boolean replaceExisting) throws IOException {
+        if (replaceExisting) {
+            Path link = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + LocalFileSystem.TEMP_FILE_SUFFIX);
+            try {
+                linkOrCopy(src, link);
+                Files.move(link, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            finally {
+                Files.deleteIfExists(link);
+            }
+        }
+        else {
+            linkOrCopy(src, target);
+        }
+    }
+
+    /**
+     * 文件与其他路径共享时，复制一份替换它，使随后的原地修改不影响其他路径。
+     *
+     * @param link path的同目录临时路径，用于原子替换。
+     */
+    void unshare(Path path, Path link) throws IOException {
+        if (getLinkCount(path) <= 1) return;
+
+        try {
+            Files.copy(path, link, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(link, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(link);
+        }
+    }
+
+    /**
+     * 删除池中只剩一个链接，即已没有路径引用的文件。
+     */
+    void collect() throws IOException {
+        lock.writeLock().lock();
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.filter(Files::isRegularFile)
+                .filter(p -> !p.getFileName().toString().endsWith(LocalFileSystem.TEMP_FILE_SUFFIX))
+                .forEach(p -> {
+                    try {
+                        if (1 == getLinkCount(p)) {
+                            Files.deleteIfExists(p);
+                        }
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 硬链接共享文件的时间，写入相同内容的路径须像新文件一样以当前时间作为修改及创建时间，否则按时间过期的数据会被提前清理。
+     * 其他共享该文件的路径的时间也随之更新。不支持设置创建时间的文件系统会忽略它。
+     */
+    private void touch(Path path) throws IOException {
+        FileTime now = FileTime.from(Instant.now());
+        Files.getFileAttributeView(path, BasicFileAttributeView.class).setTimes(now, now, now);
+    }
+
+    private void linkOrCopy(Path existing, Path link) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        }
+        catch (UnsupportedOperationException | FileSystemException e) {
+            if (e instanceof FileAlreadyExistsException) throw (FileAlreadyExistsException) e;
+
+            log.debug("无法创建硬链接，改为复制：{} -> {}", existing, link, e);
+            Files.copy(existing, link);
+        }
+    }
+
+    /**
+     * 链接数不可读时（非unix系统）视为未共享。
+     */
+    private int getLinkCount(Path path) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(path, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+        }
+        catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * 按哈希值的前两个字节分两级目录，避免单个目录过大。
+     */
+    private Path getBlobPath(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private String write(Path path, InputStream stream, boolean sync) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            byte[] bytes = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = stream.read(bytes)) >= 0) {
+                digest.update(bytes, 0, n);
+
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, n);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            if (sync) {
+                channel.force(true);
+            }
+        }
+
+        byte[] hash = digest.digest();
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; ++i) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+
+        return new String(chars);
+    }
+}
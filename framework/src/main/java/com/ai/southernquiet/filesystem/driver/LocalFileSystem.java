@@ -4,33 +4,91 @@ import com.ai.southernquiet.FrameworkAutoConfiguration;
 import com.ai.southernquiet.filesystem.FileSystem;
 import com.ai.southernquiet.filesystem.FileSystemException;
 import com.ai.southernquiet.filesystem.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.util.StreamUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.util.SystemPropertyUtils;
 
-import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
 import java.time.Instant;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
 
 /**
  * 基于操作系统本地文件系统的驱动.
  */
 public class LocalFileSystem implements FileSystem {
+    private final static Logger log = LoggerFactory.getLogger(LocalFileSystem.class);
+
+    /**
+     * 流式写入时，单次读写的缓冲大小。
+     */
+    private final static int BUFFER_SIZE = 64 * 1024;
+    /**
+     * 源为文件通道时，单次transferFrom的字节数上限。
+     */
+    private final static long TRANSFER_SIZE = 8 * 1024 * 1024;
+    /**
+     * 原子写入时临时文件的后缀，列举目录时会被忽略。
+     */
+    final static String TEMP_FILE_SUFFIX = ".sq_tmp";
+    /**
+     * 保存校验和的扩展属性名。
+     */
+    private final static String CHECKSUM_ATTRIBUTE = "sq.checksum";
+
     private String workingRoot;
+    private boolean syncOnAtomicPut;
+    private boolean checksum;
+    private MappedFileCache mappedFileCache;
+    private NameIndex nameIndex;
+    private BlobStore blobStore;
+    private ParallelPathWalker parallelPathWalker;
+    private ForkJoinPool batchPool;
+    private TreeTransfer treeTransfer;
+    private LocalPathWatchService watchService = new LocalPathWatchService();
 
     public LocalFileSystem(FrameworkAutoConfiguration.LocalFileSystemProperties properties) {
-        String workingRoot = SystemPropertyUtils.resolvePlaceholders(properties.getWorkingRoot());
+        this(properties, properties.getWorkingRoot(), properties.getDedup().getBlobRoot());
+    }
+
+    /**
+     * 使用指定的根目录，其余配置取自properties。用于 {@link ShardedLocalFileSystem} 的各个分片。
+     *
+     * @param workingRoot 实际路径
+     * @param blobRoot    去重文件池的实际路径，必须与workingRoot在同一文件存储上。
+     */
+    public LocalFileSystem(FrameworkAutoConfiguration.LocalFileSystemProperties properties, String workingRoot, String blobRoot) {
+        workingRoot = SystemPropertyUtils.resolvePlaceholders(workingRoot);
         Path workingPath = Paths.get(workingRoot);
         try {
             createDirectories(workingPath);
@@ -40,6 +98,38 @@ public class LocalFileSystem implements FileSystem {
         }
 
         this.workingRoot = workingRoot;
+        this.syncOnAtomicPut = properties.isSyncOnAtomicPut();
+        this.checksum = properties.isChecksum();
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties.MappedRead mappedRead = properties.getMappedRead();
+        if (mappedRead.isEnable()) {
+            this.mappedFileCache = new MappedFileCache(mappedRead.getCapacity(), mappedRead.getFileSizeThreshold());
+        }
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties.NameIndex nameIndex = properties.getNameIndex();
+        if (nameIndex.isEnable()) {
+            this.nameIndex = new NameIndex(nameIndex.getCapacity());
+        }
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties.Dedup dedup = properties.getDedup();
+        if (dedup.isEnable()) {
+            try {
+                this.blobStore = new BlobStore(Paths.get(SystemPropertyUtils.resolvePlaceholders(blobRoot)), dedup.getCollectInterval());
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        if (properties.getWalkParallelism() > 1) {
+            this.parallelPathWalker = new ParallelPathWalker(properties.getWalkParallelism());
+        }
+
+        if (properties.getBatchParallelism() > 1) {
+            this.batchPool = new ForkJoinPool(properties.getBatchParallelism());
+        }
+
+        this.treeTransfer = new TreeTransfer(parallelPathWalker, blobStore, properties.getTransferConcurrency());
     }
 
     @Override
@@ -54,11 +144,16 @@ public class LocalFileSystem implements FileSystem {
 
     @Override
     public void put(String path, InputStream stream) throws InvalidFileException {
+        if (null != mappedFileCache || null != blobStore) {
+            putAtomically(path, stream);
+            return;
+        }
+
         Path workingPath = getWorkingPath(path);
 
         try {
             createDirectories(workingPath.getParent());
-            Files.write(workingPath, StreamUtils.copyToByteArray(stream));
+            write(workingPath, stream, false);
         }
         catch (IOException e) {
             throw new InvalidFileException(path, e);
@@ -67,6 +162,16 @@ public class LocalFileSystem implements FileSystem {
 
     @Override
     public void put(String path, CharSequence txt) throws InvalidFileException {
+        if (null != mappedFileCache || null != blobStore) {
+            putAtomically(path, txt);
+            return;
+        }
+
+        if (checksum) {
+            FileSystem.super.put(path, txt);
+            return;
+        }
+
         Path workingPath = getWorkingPath(path);
 
         try {
@@ -78,31 +183,105 @@ public class LocalFileSystem implements FileSystem {
         }
     }
 
+    @Override
+    public void putAtomically(String path, InputStream stream) throws InvalidFileException {
+        try {
+            putAtomically(getWorkingPath(path), stream);
+        }
+        catch (IOException e) {
+            throw new InvalidFileException(path, e);
+        }
+    }
+
+    /**
+     * 各个文件并行写入，遇到的第一个无效文件在所有写入结束后抛出。
+     */
+    @Override
+    public void putAll(Map<String, ? extends InputStream> files) throws InvalidFileException {
+        List<Map.Entry<String, ? extends InputStream>> entries = new ArrayList<>(files.entrySet());
+
+        List<InvalidFileException> exceptions = batch(entries, entry -> {
+            try {
+                put(entry.getKey(), entry.getValue());
+                return null;
+            }
+            catch (InvalidFileException e) {
+                return e;
+            }
+        });
+
+        for (InvalidFileException e : exceptions) {
+            if (null != e) throw e;
+        }
+    }
+
     @Override
     public boolean exists(String path) {
         Path workingPath = getWorkingPath(path);
         return Files.exists(workingPath);
     }
 
+    @Override
+    public Map<String, Boolean> existsAll(Collection<String> paths) {
+        return toMap(paths, this::exists);
+    }
+
     @Override
     public InputStream openReadStream(String path) throws InvalidFileException {
         Path workingPath = getWorkingPath(path);
 
         try {
-            return Files.newInputStream(workingPath);
+            InputStream inputStream = null;
+            if (null != mappedFileCache) {
+                inputStream = mappedFileCache.openReadStream(workingPath);
+            }
+
+            if (null == inputStream) {
+                inputStream = Files.newInputStream(workingPath);
+            }
+
+            return checksum ? FileChecksum.verify(inputStream, readChecksum(workingPath), path) : inputStream;
         }
         catch (IOException e) {
             throw new InvalidFileException(path, e);
         }
     }
 
+    @Override
+    public RangedChannel openReadChannel(String path, long position, long count) throws InvalidFileException {
+        Path workingPath = getWorkingPath(path);
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(workingPath, StandardOpenOption.READ);
+            channel.position(position);
+            return new RangedChannel(channel, count);
+        }
+        catch (IOException e) {
+            if (null != channel) {
+                try {
+                    channel.close();
+                }
+                catch (IOException ex) {
+                    e.addSuppressed(ex);
+                }
+            }
+
+            throw new InvalidFileException(path, e);
+        }
+    }
+
     @Override
     public OutputStream openWriteStream(String path) throws InvalidFileException {
         Path workingPath = getWorkingPath(path);
 
         try {
             createDirectories(workingPath.getParent());
-            return Files.newOutputStream(workingPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            unshare(workingPath);
+
+            if (!checksum) return Files.newOutputStream(workingPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+            return openChecksummedWriteStream(workingPath);
         }
         catch (IOException e) {
             throw new InvalidFileException(path, e);
@@ -111,21 +290,46 @@ public class LocalFileSystem implements FileSystem {
 
     @Override
     public void move(String source, String destination, boolean replaceExisting) throws FileSystemException {
-        moveOrCopy(true, source, destination, replaceExisting);
+        moveOrCopy(true, source, destination, replaceExisting, null);
+    }
+
+    /**
+     * 移动文件或目录，并报告进度。
+     *
+     * @param listener 每移动或跳过一个文件后调用，可能在传输线程中调用。
+     * @see #move(String, String, boolean)
+     */
+    public TransferProgress move(String source, String destination, boolean replaceExisting, Consumer<TransferProgress> listener) throws FileSystemException {
+        return moveOrCopy(true, source, destination, replaceExisting, listener);
     }
 
     @Override
     public void copy(String source, String destination, boolean replaceExisting) throws FileSystemException {
-        moveOrCopy(false, source, destination, replaceExisting);
+        moveOrCopy(false, source, destination, replaceExisting, null);
+    }
+
+    /**
+     * 复制文件或目录，并报告进度。
+     *
+     * @param listener 每复制或跳过一个文件后调用，可能在传输线程中调用。
+     * @see #copy(String, String, boolean)
+     */
+    public TransferProgress copy(String source, String destination, boolean replaceExisting, Consumer<TransferProgress> listener) throws FileSystemException {
+        return moveOrCopy(false, source, destination, replaceExisting, listener);
     }
 
     @Override
     public void delete(String path) {
         Path workingPath = getWorkingPath(path);
 
-        if (Files.notExists(workingPath)) return;
+        if (null != mappedFileCache) {
+            mappedFileCache.invalidate(workingPath);
+        }
+
+        BasicFileAttributes attributes = readAttributes(workingPath);
+        if (null == attributes) return;
 
-        if (!Files.isDirectory(workingPath)) {
+        if (!attributes.isDirectory()) {
             try {
                 Files.deleteIfExists(workingPath);
             }
@@ -137,6 +341,11 @@ public class LocalFileSystem implements FileSystem {
         }
 
         try {
+            if (null != parallelPathWalker) {
+                parallelPathWalker.delete(workingPath);
+                return;
+            }
+
             Files.walkFileTree(workingPath, new SimpleFileVisitor<Path>() {
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
@@ -156,11 +365,35 @@ public class LocalFileSystem implements FileSystem {
         }
     }
 
+    /**
+     * 并行删除。已被其他路径包含的子孙路径不再单独删除，避免与祖先目录的删除相互干扰。
+     * 排序后祖先路径总在其子孙路径之前，但中间可能隔着其他路径（如/a、/a-b、/a/c），所以逐级检查每个祖先路径。
+     */
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        List<String> sorted = paths.stream().map(p -> NormalizedPath.of(p).toString()).distinct().sorted().collect(Collectors.toList());
+
+        Set<String> kept = new HashSet<>();
+        List<String> roots = new ArrayList<>(sorted.size());
+        for (String path : sorted) {
+            if (kept.contains(PATH_SEPARATOR_STRING) || containsAncestor(kept, path)) continue;
+
+            kept.add(path);
+            roots.add(path);
+        }
+
+        batch(roots, path -> {
+            delete(path);
+            return null;
+        });
+    }
+
     @Override
     public void touchCreation(String path) {
         Path workingPath = getWorkingPath(path);
         BasicFileAttributeView attributes = Files.getFileAttributeView(workingPath, BasicFileAttributeView.class);
         try {
+            unshare(workingPath);
             attributes.setTimes(null, null, FileTime.from(Instant.now()));
         }
         catch (IOException e) {
@@ -172,6 +405,7 @@ public class LocalFileSystem implements FileSystem {
     public void touchLastModified(String path) {
         Path workingPath = getWorkingPath(path);
         try {
+            unshare(workingPath);
             Files.setLastModifiedTime(workingPath, FileTime.from(Instant.now()));
         }
         catch (IOException e) {
@@ -184,6 +418,7 @@ public class LocalFileSystem implements FileSystem {
         Path workingPath = getWorkingPath(path);
         BasicFileAttributeView attributes = Files.getFileAttributeView(workingPath, BasicFileAttributeView.class);
         try {
+            unshare(workingPath);
             attributes.setTimes(null, FileTime.from(Instant.now()), null);
         }
         catch (IOException e) {
@@ -193,147 +428,419 @@ public class LocalFileSystem implements FileSystem {
 
     @Override
     public PathMeta meta(String path) {
-        NormalizedPath normalizedPath = new NormalizedPath(path);
+        NormalizedPath normalizedPath = NormalizedPath.of(path);
         return meta(normalizedPath, getWorkingPath(normalizedPath));
     }
 
+    @Override
+    public Map<String, PathMeta> metaAll(Collection<String> paths) {
+        return toMap(paths, this::meta);
+    }
+
     @Override
     public Stream<? extends PathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
-        Stream<PathMeta> stream = pathStream(path, search, recursive, sort).filter(PathMeta::isDirectory);
-        if (offset > 0) {
-            stream = stream.skip(offset);
-        }
+        return pathStream(path, search, recursive, true, offset, limit, sort);
+    }
 
-        if (limit > 0) {
-            stream = stream.limit(limit);
-        }
+    @Override
+    public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return pathStream(path, search, recursive, false, offset, limit, sort);
+    }
 
-        return stream;
+    @Override
+    public Stream<? extends PathMeta> directoriesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return prefixStream(path, prefix, true);
     }
 
     @Override
-    public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
-        Stream<PathMeta> stream = pathStream(path, search, recursive, sort).filter(m -> !m.isDirectory());
-        if (offset > 0) {
-            stream = stream.skip(offset);
-        }
+    public Stream<? extends PathMeta> filesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return prefixStream(path, prefix, false);
+    }
+
+    @Override
+    public PathWatcher watch(String path, Consumer<PathEvent> listener) throws PathNotFoundException {
+        NormalizedPath normalizedPath = NormalizedPath.of(path);
+        Path workingPath = getWorkingPath(normalizedPath);
+        if (!Files.isDirectory(workingPath)) throw new PathNotFoundException(path);
 
-        if (limit > 0) {
-            stream = stream.limit(limit);
+        try {
+            return watchService.watch(workingPath, normalizedPath.toString(), listener);
         }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-        return stream;
+    /**
+     * 立即清理去重文件池中已没有路径引用的文件，未启用去重时什么也不做。
+     */
+    public void collectBlobs() {
+        if (null == blobStore) return;
+
+        try {
+            blobStore.collect();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     private Path getWorkingPath(NormalizedPath path) {
         return Paths.get(workingRoot + path.toString());
     }
 
-    private Path getWorkingPath(String path) {
-        return Paths.get(workingRoot + new NormalizedPath(path).toString());
+    Path getWorkingPath(String path) {
+        return Paths.get(workingRoot + NormalizedPath.of(path).toString());
+    }
+
+    /**
+     * 把已写完的同目录临时文件提交为workingPath，与 {@link #putAtomically(String, InputStream)} 一样经过去重文件池并记录校验和。
+     * 供 {@link LocalReactiveFileSystem} 在异步写完临时文件后调用；启用去重或校验和时需要再读一遍临时文件。
+     */
+    void commit(Path tmp, Path workingPath) throws IOException {
+        if (null != blobStore) {
+            try (InputStream stream = Files.newInputStream(tmp)) {
+                putAtomically(workingPath, stream);
+            }
+            return;
+        }
+
+        if (checksum) {
+            Checksum sum = FileChecksum.newChecksum();
+            try (InputStream stream = new CheckedInputStream(Files.newInputStream(tmp), sum)) {
+                StreamUtils.drain(stream);
+            }
+            writeChecksum(tmp, FileChecksum.format(sum));
+        }
+
+        Files.move(tmp, workingPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 原子写入时使用的临时文件，与目标文件在同一目录下，保证可以原子地重命名。
+     */
+    Path getTempPath(Path workingPath) {
+        return workingPath.resolveSibling("." + workingPath.getFileName() + "." + UUID.randomUUID() + TEMP_FILE_SUFFIX);
+    }
+
+    boolean isSyncOnAtomicPut() {
+        return syncOnAtomicPut;
+    }
+
+    /**
+     * 完整读取时是否须经过 {@link #openReadStream(String)}：校验和在读取流读到末尾时校验，小文件从内存映射中读取。
+     */
+    boolean isReadStreamRequired() {
+        return checksum || null != mappedFileCache;
+    }
+
+    /**
+     * 原地修改文件前调用，文件与其他路径共享内容时先解除共享。
+     */
+    void unshare(Path workingPath) throws IOException {
+        if (null != blobStore && Files.isRegularFile(workingPath, LinkOption.NOFOLLOW_LINKS)) {
+            blobStore.unshare(workingPath, getTempPath(workingPath));
+        }
+    }
+
+    /**
+     * 内容被校验和未覆盖的方式修改前调用，移除已过期的校验和。
+     */
+    void removeChecksum(Path workingPath) {
+        if (!checksum) return;
+
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(workingPath, UserDefinedFileAttributeView.class);
+        if (null == view) return;
+
+        try {
+            view.delete(CHECKSUM_ATTRIBUTE);
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            //属性不存在或者不支持扩展属性
+        }
+    }
+
+    /**
+     * @return 未记录校验和或者不支持扩展属性时，返回null。
+     */
+    private String readChecksum(Path workingPath) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(workingPath, UserDefinedFileAttributeView.class);
+        if (null == view) return null;
+
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(view.size(CHECKSUM_ATTRIBUTE));
+            view.read(CHECKSUM_ATTRIBUTE, buffer);
+            buffer.flip();
+            return StandardCharsets.US_ASCII.decode(buffer).toString();
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private void writeChecksum(Path workingPath, String value) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(workingPath, UserDefinedFileAttributeView.class);
+        if (null == view) return;
+
+        try {
+            view.write(CHECKSUM_ATTRIBUTE, StandardCharsets.US_ASCII.encode(value));
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            log.debug("无法保存校验和：{}", workingPath, e);
+        }
+    }
+
+    /**
+     * 新文件在写入的同时计算校验和，关闭时保存；向已有内容追加时无法接续原来的校验和，只移除它。
+     */
+    private OutputStream openChecksummedWriteStream(Path workingPath) throws IOException {
+        boolean empty = Files.notExists(workingPath) || 0 == Files.size(workingPath);
+        removeChecksum(workingPath);
+
+        OutputStream outputStream = Files.newOutputStream(workingPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (!empty) return outputStream;
+
+        Checksum sum = FileChecksum.newChecksum();
+        return new CheckedOutputStream(outputStream, sum) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                writeChecksum(workingPath, FileChecksum.format(sum));
+            }
+        };
+    }
+
+    private boolean containsAncestor(Set<String> paths, String path) {
+        for (int i = path.indexOf(PATH_SEPARATOR, 1); i > 0; i = path.indexOf(PATH_SEPARATOR, i + 1)) {
+            if (paths.contains(path.substring(0, i))) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * 批量操作中互不相关的系统调用在batchParallelism个线程中并行执行，未配置时逐个执行。
+     *
+     * @return 与items的顺序一致
+     */
+    private <T, R> List<R> batch(List<T> items, Function<T, R> action) {
+        if (null == batchPool || items.size() < 2) return items.stream().map(action).collect(Collectors.toList());
+
+        return batchPool.submit(() -> items.parallelStream().map(action).collect(Collectors.toList())).join();
+    }
+
+    private <V> Map<String, V> toMap(Collection<String> paths, Function<String, V> action) {
+        List<String> list = new ArrayList<>(paths);
+        List<V> values = batch(list, action);
+
+        Map<String, V> result = new LinkedHashMap<>();
+        for (int i = 0; i < list.size(); ++i) {
+            result.put(list.get(i), values.get(i));
+        }
+
+        return result;
     }
 
     private NormalizedPath getNormalizedPath(Path path) {
-        return new NormalizedPath(path.subpath(Paths.get(workingRoot).getNameCount(), path.getNameCount()).toString());
+        return NormalizedPath.of(path.subpath(Paths.get(workingRoot).getNameCount(), path.getNameCount()).toString());
     }
 
-    private void moveOrCopy(boolean move, String source, String destination, boolean replaceExisting) throws FileSystemException {
+    private TransferProgress moveOrCopy(boolean move, String source, String destination, boolean replaceExisting, Consumer<TransferProgress> listener) throws FileSystemException {
         Path src = getWorkingPath(source);
         Path dest = getWorkingPath(destination);
 
         if (Files.notExists(src)) throw new PathNotFoundException(source);
 
-        if (Files.notExists(dest)) {
-            try {
-                moveOrCopy(move, src, dest);
-            }
-            catch (IOException e) {
-                throw new FileSystemException(source + " " + destination, e);
-            }
+        if (null != mappedFileCache && move) {
+            mappedFileCache.invalidate(src);
+        }
 
-            return;
+        TransferProgress progress;
+        try {
+            progress = treeTransfer.transfer(move, src, dest, replaceExisting, listener);
+        }
+        catch (IOException | UncheckedIOException e) {
+            throw new FileSystemException(source + " " + destination, e);
         }
 
-        Stream<Path> stream;
-        if (Files.isDirectory(src)) {
-            if (!Files.isDirectory(dest)) throw new FileSystemException("不能把目录移动或复制到文件。");
+        log.debug("{} {} -> {}: {}", move ? "move" : "copy", source, destination, progress);
+        return progress;
+    }
 
-            try {
-                stream = Files.walk(src).filter(p -> !Files.isDirectory(p));
-            }
-            catch (IOException e) {
-                throw new FileSystemException(source + " " + destination, e);
-            }
+    /**
+     * 先按类型过滤，再分页。不排序时只为分页范围内的路径构造 {@link PathMeta}；排序时使用有界的堆选出分页范围。
+     */
+    private Stream<PathMeta> pathStream(String path, String search, boolean recursive, boolean directory, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        Path workingPath = getWorkingPath(path);
+        if (Files.notExists(workingPath)) throw new PathNotFoundException(path);
+
+        Stream<PathAttributes> stream;
+        try {
+            stream = walk(workingPath, search, recursive).filter(p -> p.attributes.isDirectory() == directory);
         }
-        else {
-            stream = Stream.of(src);
+        catch (IOException e) {
+            throw new RuntimeException(e);
         }
 
-        if (replaceExisting) {
-            stream.forEach(path -> {
-                Path target = dest.resolve(path.relativize(src));
-                try {
-                    moveOrCopy(move, src, target, StandardCopyOption.REPLACE_EXISTING);
-                }
-                catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-        }
-        else {
-            stream.forEach(path -> {
-                Path target = dest.resolve(path.relativize(src));
-                if (Files.exists(target)) return;
+        if (null == sort) {
+            if (offset > 0) {
+                stream = stream.skip(offset);
+            }
 
-                try {
-                    moveOrCopy(move, src, target);
-                }
-                catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
+            if (limit > 0) {
+                stream = stream.limit(limit);
+            }
+
+            return stream.map(this::meta);
         }
+
+        return FileSystem.page(stream.map(this::meta), offset, limit, sort);
     }
 
-    private void moveOrCopy(boolean move, Path src, Path dest, CopyOption... options) throws IOException {
-        Set<CopyOption> opts = new HashSet<>(Arrays.asList(options));
-        opts.add(StandardCopyOption.COPY_ATTRIBUTES);
+    private void putAtomically(Path workingPath, InputStream stream) throws IOException {
+        Path tmp = getTempPath(workingPath);
+
+        try {
+            createDirectories(workingPath.getParent());
+
+            if (null != blobStore) {
+                Checksum sum = checksum ? FileChecksum.newChecksum() : null;
+                blobStore.put(workingPath, tmp, null == sum ? stream : new CheckedInputStream(stream, sum), syncOnAtomicPut);
 
-        if (move) {
-            Files.move(src, dest, opts.toArray(new CopyOption[opts.size()]));
+                if (null != sum) {
+                    writeChecksum(workingPath, FileChecksum.format(sum));
+                }
+                return;
+            }
+
+            write(tmp, stream, syncOnAtomicPut);
+            Files.move(tmp, workingPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
         }
-        else {
-            Files.copy(src, dest, opts.toArray(new CopyOption[opts.size()]));
+        finally {
+            try {
+                Files.deleteIfExists(tmp);
+            }
+            catch (IOException e) {
+                //pass
+            }
         }
     }
 
-    private Stream<PathMeta> pathStream(String path, String search, boolean recursive, PathMetaSort sort) throws PathNotFoundException {
+    /**
+     * 启用名称索引时在索引中二分查找，否则列举目录并按前缀过滤；两种方式都只读取匹配路径的属性。
+     */
+    private Stream<PathMeta> prefixStream(String path, String prefix, boolean directory) throws PathNotFoundException {
         Path workingPath = getWorkingPath(path);
         if (Files.notExists(workingPath)) throw new PathNotFoundException(path);
 
+        String namePrefix = null == prefix ? "" : prefix;
+
         Stream<Path> stream;
         try {
-            if (recursive) {
-                stream = Files.walk(workingPath);
-            }
-            else {
-                stream = Files.list(workingPath);
-            }
+            stream = null != nameIndex
+                ? nameIndex.find(workingPath, namePrefix).stream()
+                : Files.list(workingPath).filter(p -> p.getFileName().toString().startsWith(namePrefix));
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return stream
+            .filter(p -> !p.getFileName().toString().endsWith(TEMP_FILE_SUFFIX))
+            .map(PathAttributes::new)
+            .filter(p -> null != p.attributes && p.attributes.isDirectory() == directory)
+            .map(this::meta);
+    }
+
+    /**
+     * 列举目录下的路径，每个路径只读取一次属性，同时用于过滤类型及判断是否需要递归。
+     * 非递归时先按名称过滤，不匹配的路径不会读取属性。
+     */
+    private Stream<PathAttributes> walk(Path directory, String search, boolean recursive) throws IOException {
+        boolean hasSearch = StringUtils.hasText(search);
+
+        if (recursive && null != parallelPathWalker) {
+            return parallelPathWalker.walk(directory, p -> {
+                String name = p.path.getFileName().toString();
+                return !name.endsWith(TEMP_FILE_SUFFIX) && (!hasSearch || name.contains(search));
+            }).stream();
+        }
 
-            if (StringUtils.hasText(search)) {
+        Stream<Path> stream = Files.list(directory).filter(p -> !p.getFileName().toString().endsWith(TEMP_FILE_SUFFIX));
+
+        if (!recursive) {
+            if (hasSearch) {
                 stream = stream.filter(p -> p.getFileName().toString().contains(search));
             }
 
-            Stream<PathMeta> metaStream = stream.map(p -> meta(getNormalizedPath(p), p));
+            return stream.map(PathAttributes::new).filter(p -> null != p.attributes);
+        }
+
+        return stream.flatMap(p -> {
+            PathAttributes pathAttributes = new PathAttributes(p);
+            if (null == pathAttributes.attributes) return Stream.empty();
+
+            Stream<PathAttributes> self = !hasSearch || p.getFileName().toString().contains(search)
+                ? Stream.of(pathAttributes)
+                : Stream.empty();
 
-            if (null != sort) {
-                metaStream = FileSystem.sort(metaStream, sort);
+            if (!pathAttributes.attributes.isDirectory() || Files.isSymbolicLink(p)) return self;
+
+            try {
+                return Stream.concat(self, walk(p, search, true));
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
             }
+        });
+    }
 
-            return metaStream;
-        }
-        catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * 以有限大小的缓冲把输入流写入文件，内存占用与文件大小无关。如果输入流背后是文件通道，直接使用transferFrom。
+     * 启用校验和时在同一次复制中计算，不使用transferFrom。
+     * 输入流由调用方负责关闭。
+     *
+     * @param sync 如果true，返回前把文件内容同步到存储设备。
+     */
+    private void write(Path workingPath, InputStream stream, boolean sync) throws IOException {
+        Checksum sum = null;
+        if (checksum) {
+            sum = FileChecksum.newChecksum();
+            removeChecksum(workingPath);
+        }
+
+        try (FileChannel target = FileChannel.open(workingPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (null == sum && stream instanceof FileInputStream) {
+                FileChannel source = ((FileInputStream) stream).getChannel();
+
+                long position = 0;
+                long count;
+                while ((count = target.transferFrom(source, position, TRANSFER_SIZE)) > 0) {
+                    position += count;
+                }
+            }
+            else {
+                ReadableByteChannel source = Channels.newChannel(stream);
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (source.read(buffer) >= 0) {
+                    buffer.flip();
+                    if (null != sum) {
+                        sum.update(buffer.array(), 0, buffer.limit());
+                    }
+                    while (buffer.hasRemaining()) {
+                        target.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+
+            if (null != sum) {
+                writeChecksum(workingPath, FileChecksum.format(sum));
+            }
+
+            if (sync) {
+                target.force(true);
+            }
         }
     }
 
@@ -344,24 +851,27 @@ public class LocalFileSystem implements FileSystem {
     }
 
     private PathMeta meta(NormalizedPath normalizedPath, Path workingPath) {
-        if (Files.notExists(workingPath)) return null;
+        BasicFileAttributes attributes = readAttributes(workingPath);
+        if (null == attributes) return null;
 
-        File file = workingPath.toFile();
-        PathMeta meta = new PathMeta(normalizedPath);
+        return meta(normalizedPath, workingPath, attributes);
+    }
 
-        meta.setDirectory(file.isDirectory());
+    private PathMeta meta(PathAttributes pathAttributes) {
+        return meta(getNormalizedPath(pathAttributes.path), pathAttributes.path, pathAttributes.attributes);
+    }
 
-        if (file.isFile()) {
-            meta.setSize(file.length());
-        }
+    private PathMeta meta(NormalizedPath normalizedPath, Path workingPath, BasicFileAttributes attributes) {
+        PathMeta meta = new PathMeta(normalizedPath);
 
+        meta.setDirectory(attributes.isDirectory());
 
-        BasicFileAttributes attributes;
-        try {
-            attributes = Files.readAttributes(workingPath, BasicFileAttributes.class);
-        }
-        catch (IOException e) {
-            throw new RuntimeException(e);
+        if (attributes.isRegularFile()) {
+            meta.setSize(attributes.size());
+
+            if (checksum) {
+                meta.setChecksum(readChecksum(workingPath));
+            }
         }
 
         meta.setCreationTime(attributes.creationTime().toInstant());
@@ -370,4 +880,11 @@ public class LocalFileSystem implements FileSystem {
 
         return meta;
     }
+
+    /**
+     * @return 路径不存在时，返回null。
+     */
+    private BasicFileAttributes readAttributes(Path workingPath) {
+        return PathAttributes.read(workingPath);
+    }
 }
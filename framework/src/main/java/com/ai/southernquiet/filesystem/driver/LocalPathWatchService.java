@@ -0,0 +1,135 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import com.ai.southernquiet.filesystem.PathEvent;
+import com.ai.southernquiet.filesystem.PathWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static com.ai.southernquiet.filesystem.FileSystem.PATH_SEPARATOR_STRING;
+
+/**
+ * 基于 {@link WatchService} 的目录订阅，所有订阅共用一个WatchService及一个守护线程分发事件。
+ */
+class LocalPathWatchService {
+    private final static Logger log = LoggerFactory.getLogger(LocalPathWatchService.class);
+
+    private WatchService watchService;
+    private Map<WatchKey, List<Registration>> registrations = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory           被订阅的目录
+     * @param normalizedDirectory 被订阅的目录在FileSystem中的规格化路径
+     */
+    synchronized PathWatcher watch(Path directory, String normalizedDirectory, Consumer<PathEvent> listener) throws IOException {
+        if (null == watchService) {
+            watchService = directory.getFileSystem().newWatchService();
+
+            Thread thread = new Thread(this::dispatch, "sq-local-fs-watch");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        WatchKey key = directory.register(
+            watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE
+        );
+
+        Registration registration = new Registration(key, normalizedDirectory, listener);
+        registrations.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(registration);
+        return registration;
+    }
+
+    private synchronized void unregister(Registration registration) {
+        List<Registration> list = registrations.get(registration.key);
+        if (null == list) return;
+
+        list.remove(registration);
+        if (list.isEmpty()) {
+            registrations.remove(registration.key);
+            registration.key.cancel();
+        }
+    }
+
+    private void dispatch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            }
+            catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            List<Registration> list = registrations.get(key);
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (null == list || list.isEmpty()) continue;
+
+                PathEvent pathEvent = toPathEvent(event, list.get(0).directory);
+                if (null == pathEvent) continue;
+
+                for (Registration registration : list) {
+                    try {
+                        registration.listener.accept(pathEvent);
+                    }
+                    catch (Exception e) {
+                        log.warn("处理目录变化{}失败", pathEvent, e);
+                    }
+                }
+            }
+
+            if (!key.reset()) {
+                registrations.remove(key);
+            }
+        }
+    }
+
+    private PathEvent toPathEvent(WatchEvent<?> event, String directory) {
+        WatchEvent.Kind<?> kind = event.kind();
+        if (StandardWatchEventKinds.OVERFLOW == kind) {
+            return new PathEvent(PathEvent.Kind.Overflow, directory);
+        }
+
+        String name = event.context().toString();
+        if (name.endsWith(LocalFileSystem.TEMP_FILE_SUFFIX)) return null;
+
+        String path = PATH_SEPARATOR_STRING.equals(directory) ? directory + name : directory + PATH_SEPARATOR_STRING + name;
+
+        if (StandardWatchEventKinds.ENTRY_CREATE == kind) {
+            return new PathEvent(PathEvent.Kind.Created, path);
+        }
+
+        if (StandardWatchEventKinds.ENTRY_DELETE == kind) {
+            return new PathEvent(PathEvent.Kind.Deleted, path);
+        }
+
+        return new PathEvent(PathEvent.Kind.Modified, path);
+    }
+
+    private class Registration implements PathWatcher {
+        private final WatchKey key;
+        private final String directory;
+        private final Consumer<PathEvent> listener;
+
+        Registration(WatchKey key, String directory, Consumer<PathEvent> listener) {
+            this.key = key;
+            this.directory = directory;
+            this.listener = listener;
+        }
+
+        @Override
+        public void close() {
+            unregister(this);
+        }
+    }
+}
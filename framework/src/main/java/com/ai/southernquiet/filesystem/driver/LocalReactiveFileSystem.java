@@ -0,0 +1,116 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import com.ai.southernquiet.filesystem.InvalidFileException;
+import com.ai.southernquiet.filesystem.ReactiveFileSystemAdapter;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link LocalFileSystem}的非阻塞驱动，文件内容通过 {@link AsynchronousFileChannel} 读写；
+ * 打开文件、重命名等元数据操作，以及其余方法仍在调度器上调用 {@link LocalFileSystem}。
+ */
+public class LocalReactiveFileSystem extends ReactiveFileSystemAdapter {
+    private LocalFileSystem localFileSystem;
+
+    public LocalReactiveFileSystem(LocalFileSystem fileSystem, Scheduler scheduler, DataBufferFactory dataBufferFactory, int bufferSize) {
+        super(fileSystem, scheduler, dataBufferFactory, bufferSize);
+
+        this.localFileSystem = fileSystem;
+    }
+
+    @Override
+    public Flux<DataBuffer> read(String path) {
+        return read(path, 0, -1);
+    }
+
+    /**
+     * 启用校验和或内存映射时，完整读取经过 {@link LocalFileSystem#openReadStream(String)}，读到末尾时校验。
+     */
+    @Override
+    public Flux<DataBuffer> read(String path, long position, long count) {
+        if (0 == position && count < 0 && localFileSystem.isReadStreamRequired()) return super.read(path);
+
+        Path workingPath = localFileSystem.getWorkingPath(path);
+
+        Flux<DataBuffer> flux = DataBufferUtils.readAsynchronousFileChannel(
+            () -> AsynchronousFileChannel.open(workingPath, StandardOpenOption.READ),
+            position,
+            dataBufferFactory,
+            bufferSize
+        );
+
+        if (count >= 0) {
+            flux = DataBufferUtils.takeUntilByteCount(flux, count);
+        }
+
+        return flux
+            .onErrorMap(IOException.class, e -> new InvalidFileException(path, e))
+            .subscribeOn(scheduler);
+    }
+
+    /**
+     * 写入同一目录下的临时文件，完成后由 {@link LocalFileSystem} 提交，与阻塞的写入一样经过去重文件池并记录校验和。
+     */
+    @Override
+    public Mono<Void> put(String path, Publisher<DataBuffer> data) {
+        Path workingPath = localFileSystem.getWorkingPath(path);
+        Path tmp = localFileSystem.getTempPath(workingPath);
+
+        return run(() -> Files.createDirectories(workingPath.getParent()))
+            .then(Mono.using(
+                () -> AsynchronousFileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                channel -> DataBufferUtils.write(data, channel, 0)
+                    .doOnNext(DataBufferUtils::release)
+                    .then(run(() -> {
+                        if (localFileSystem.isSyncOnAtomicPut()) {
+                            channel.force(true);
+                        }
+                    })),
+                this::close
+            ))
+            .then(run(() -> localFileSystem.commit(tmp, workingPath)))
+            .then(run(() -> Files.deleteIfExists(tmp)))
+            .onErrorResume(e -> run(() -> Files.deleteIfExists(tmp)).then(Mono.error(e)))
+            .onErrorMap(IOException.class, e -> new InvalidFileException(path, e))
+            .subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<Void> append(String path, Publisher<DataBuffer> data) {
+        Path workingPath = localFileSystem.getWorkingPath(path);
+
+        return run(() -> {
+            Files.createDirectories(workingPath.getParent());
+            localFileSystem.unshare(workingPath);
+            localFileSystem.removeChecksum(workingPath);
+        })
+            .then(Mono.using(
+                () -> AsynchronousFileChannel.open(workingPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE),
+                channel -> Mono.fromCallable(channel::size)
+                    .flatMap(size -> DataBufferUtils.write(data, channel, size).doOnNext(DataBufferUtils::release).then()),
+                this::close
+            ))
+            .onErrorMap(IOException.class, e -> new InvalidFileException(path, e))
+            .subscribeOn(scheduler);
+    }
+
+    private void close(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            //pass
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * 小文件的内存映射池，按LRU淘汰。
+ * <ul>
+ * <li>每次读取只做一次stat，文件标识、大小或修改时间变化时重新映射。</li>
+ * <li>被淘汰的映射在所有读取流关闭后才解除，避免访问已解除映射的内存。</li>
+ * <li>被映射的文件不能被原地截断，所以启用时 {@link LocalFileSystem} 的写入改用原子替换。</li>
+ * </ul>
+ */
+class MappedFileCache {
+    private final static Consumer<MappedByteBuffer> unmapper = createUnmapper();
+
+    private final long fileSizeThreshold;
+    private final Map<Path, Region> regions;
+
+    /**
+     * @param capacity          同时保持映射的文件数量上限
+     * @param fileSizeThreshold 大于该阈值的文件不映射，单位：byte。
+     */
+    MappedFileCache(int capacity, long fileSizeThreshold) {
+        this.fileSizeThreshold = fileSizeThreshold;
+        this.regions = new LinkedHashMap<Path, Region>(16, 0.75f, true) {
+            private final static long serialVersionUID = 4713425106262335962L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Region> eldest) {
+                if (size() <= capacity) return false;
+
+                evict(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return 文件不适合映射时返回null，由调用方回退到普通读取。
+     */
+    InputStream openReadStream(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!attributes.isRegularFile() || attributes.size() > fileSizeThreshold) {
+            invalidate(path);
+            return null;
+        }
+
+        synchronized (this) {
+            Region region = regions.get(path);
+            if (null != region && region.matches(attributes)) {
+                return new RegionInputStream(retain(region));
+            }
+        }
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        Region region = new Region(buffer, attributes);
+        synchronized (this) {
+            Region previous = regions.put(path, region);
+            if (null != previous) {
+                evict(previous);
+            }
+
+            return new RegionInputStream(retain(region));
+        }
+    }
+
+    /**
+     * 移除路径本身及其下所有路径的映射。
+     */
+    synchronized void invalidate(Path path) {
+        Iterator<Map.Entry<Path, Region>> iterator = regions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Region> entry = iterator.next();
+            if (entry.getKey().startsWith(path)) {
+                evict(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    private Region retain(Region region) {
+        ++region.references;
+        return region;
+    }
+
+    private synchronized void release(Region region) {
+        --region.references;
+        if (region.evicted && 0 == region.references) {
+            unmapper.accept(region.buffer);
+        }
+    }
+
+    private void evict(Region region) {
+        region.evicted = true;
+        if (0 == region.references) {
+            unmapper.accept(region.buffer);
+        }
+    }
+
+    /**
+     * 解除映射没有公开的API，按JDK版本使用对应的内部实现；都不可用时交给GC回收。
+     */
+    private static Consumer<MappedByteBuffer> createUnmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+
+            return buffer -> {
+                try {
+                    invokeCleaner.invoke(unsafe, buffer);
+                }
+                catch (Exception e) {
+                    //pass
+                }
+            };
+        }
+        catch (Exception e) {
+            //JDK8没有invokeCleaner
+        }
+
+        return buffer -> {
+            try {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (null != cleaner) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+            catch (Exception e) {
+                //pass
+            }
+        };
+    }
+
+    private static class Region {
+        private final MappedByteBuffer buffer;
+        private final Object fileKey;
+        private final FileTime lastModifiedTime;
+        private final long size;
+
+        private int references;
+        private boolean evicted;
+
+        Region(MappedByteBuffer buffer, BasicFileAttributes attributes) {
+            this.buffer = buffer;
+            this.fileKey = attributes.fileKey();
+            this.lastModifiedTime = attributes.lastModifiedTime();
+            this.size = attributes.size();
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return Objects.equals(fileKey, attributes.fileKey())
+                && lastModifiedTime.equals(attributes.lastModifiedTime())
+                && size == attributes.size();
+        }
+    }
+
+    private class RegionInputStream extends InputStream {
+        private final Region region;
+        private ByteBuffer buffer;
+        private boolean closed = false;
+
+        RegionInputStream(Region region) {
+            this.region = region;
+            this.buffer = region.buffer.duplicate();
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) return -1;
+
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (0 == len) return 0;
+            if (!buffer.hasRemaining()) return -1;
+
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+
+            closed = true;
+            buffer = ByteBuffer.allocate(0);
+            release(region);
+        }
+    }
+}
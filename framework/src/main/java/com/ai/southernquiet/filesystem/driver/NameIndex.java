@@ -0,0 +1,143 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 目录下直接子路径名称的有序索引，按LRU淘汰，用于按前缀查找。
+ * <ul>
+ * <li>目录中增加、删除、重命名子路径都会更新目录的修改时间，每次查找只对目录做一次stat，修改时间变化时重新列举。</li>
+ * <li>修改时间的精度有限，目录刚被修改过时不建立索引，避免同一时间刻度内的后续修改被漏掉；
+ * 此时只扫描一遍目录、保留匹配的名称，不为整个目录排序，频繁修改的目录因此不会在每次查找时重建索引。</li>
+ * <li>索引只保存名称，文件属性仍在查找时读取。</li>
+ * </ul>
+ */
+class NameIndex {
+    /**
+     * 常见文件存储中修改时间精度的上限（FAT为2秒）。
+     */
+    private final static long RACY_WINDOW_MILLIS = 2000;
+
+    private final Map<Path, Entry> entries;
+
+    /**
+     * @param capacity 同时保持索引的目录数量上限
+     */
+    NameIndex(int capacity) {
+        this.entries = new LinkedHashMap<Path, Entry>(16, 0.75f, true) {
+            private final static long serialVersionUID = -6262164817367924375L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return 名称以prefix开头的直接子路径，按名称排序。
+     */
+    List<Path> find(Path directory, String prefix) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(directory, BasicFileAttributes.class);
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(directory);
+        }
+
+        if (null == entry || !entry.matches(attributes)) {
+            if (isRacy(attributes)) return scan(directory, prefix);
+
+            entry = list(directory, attributes);
+        }
+
+        String[] names = entry.names;
+        int from = Arrays.binarySearch(names, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+
+        List<Path> result = new ArrayList<>();
+        for (int i = from; i < names.length && names[i].startsWith(prefix); ++i) {
+            result.add(directory.resolve(names[i]));
+        }
+
+        return result;
+    }
+
+    /**
+     * 列举并保存索引。列举期间目录被修改时，修改时间已与attributes不同，下次查找会重新列举。
+     */
+    private Entry list(Path directory, BasicFileAttributes attributes) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                names.add(path.getFileName().toString());
+            }
+        }
+        Collections.sort(names);
+
+        Entry entry = new Entry(names.toArray(new String[0]), attributes);
+
+        synchronized (this) {
+            entries.put(directory, entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * 不建立索引，只对匹配的名称排序。
+     */
+    private List<Path> scan(Path directory, String prefix) throws IOException {
+        synchronized (this) {
+            entries.remove(directory);
+        }
+
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(prefix)) {
+                    names.add(name);
+                }
+            }
+        }
+        Collections.sort(names);
+
+        List<Path> result = new ArrayList<>(names.size());
+        names.forEach(name -> result.add(directory.resolve(name)));
+        return result;
+    }
+
+    private static boolean isRacy(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().toMillis() >= System.currentTimeMillis() - RACY_WINDOW_MILLIS;
+    }
+
+    private static class Entry {
+        final String[] names;
+        final Object fileKey;
+        final FileTime lastModifiedTime;
+
+        Entry(String[] names, BasicFileAttributes attributes) {
+            this.names = names;
+            this.fileKey = attributes.fileKey();
+            this.lastModifiedTime = attributes.lastModifiedTime();
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return Objects.equals(fileKey, attributes.fileKey()) && lastModifiedTime.equals(attributes.lastModifiedTime());
+        }
+    }
+}
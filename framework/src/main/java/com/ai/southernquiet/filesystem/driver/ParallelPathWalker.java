@@ -0,0 +1,136 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+/**
+ * 基于fork-join的目录树并行遍历，每个目录是一个任务，子目录分叉为新的任务。工作线程是守护线程，不需要显式关闭。
+ */
+class ParallelPathWalker {
+    private ForkJoinPool pool;
+
+    ParallelPathWalker(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * 遍历目录树（不含根目录本身），返回满足条件的路径。符号链接指向的目录不会被递归。
+     * 所有结果在返回前都已读入内存。
+     */
+    List<PathAttributes> walk(Path root, Predicate<PathAttributes> filter) throws IOException {
+        return invoke(new WalkTask(root, filter));
+    }
+
+    /**
+     * 删除目录树，包括根目录本身。符号链接只删除链接本身。
+     */
+    void delete(Path root) throws IOException {
+        invoke(new DeleteTask(root));
+    }
+
+    private <T> T invoke(ForkJoinTask<T> task) throws IOException {
+        try {
+            return pool.invoke(task);
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class WalkTask extends RecursiveTask<List<PathAttributes>> {
+        private final static long serialVersionUID = -2431706526815350421L;
+
+        private Path directory;
+        private Predicate<PathAttributes> filter;
+
+        WalkTask(Path directory, Predicate<PathAttributes> filter) {
+            this.directory = directory;
+            this.filter = filter;
+        }
+
+        @Override
+        protected List<PathAttributes> compute() {
+            List<PathAttributes> result = new ArrayList<>();
+            List<WalkTask> subTasks = new ArrayList<>();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    PathAttributes pathAttributes = new PathAttributes(path);
+                    if (null == pathAttributes.attributes) continue;
+
+                    if (filter.test(pathAttributes)) {
+                        result.add(pathAttributes);
+                    }
+
+                    if (pathAttributes.attributes.isDirectory() && !Files.isSymbolicLink(path)) {
+                        WalkTask task = new WalkTask(path, filter);
+                        task.fork();
+                        subTasks.add(task);
+                    }
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            for (WalkTask task : subTasks) {
+                result.addAll(task.join());
+            }
+
+            return result;
+        }
+    }
+
+    private static class DeleteTask extends RecursiveAction {
+        private final static long serialVersionUID = 6061497338306493452L;
+
+        private Path directory;
+
+        DeleteTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<DeleteTask> subTasks = new ArrayList<>();
+
+            try {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                    for (Path path : stream) {
+                        PathAttributes pathAttributes = new PathAttributes(path, LinkOption.NOFOLLOW_LINKS);
+                        if (null == pathAttributes.attributes) continue;
+
+                        if (pathAttributes.attributes.isDirectory()) {
+                            DeleteTask task = new DeleteTask(path);
+                            task.fork();
+                            subTasks.add(task);
+                        }
+                        else {
+                            Files.deleteIfExists(path);
+                        }
+                    }
+                }
+
+                for (DeleteTask task : subTasks) {
+                    task.join();
+                }
+
+                Files.deleteIfExists(directory);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * 列举目录时读取到的路径及其属性，属性只读取一次。
+ */
+class PathAttributes {
+    final Path path;
+    /**
+     * 路径已不存在时为null。
+     */
+    final BasicFileAttributes attributes;
+
+    PathAttributes(Path path, LinkOption... options) {
+        this.path = path;
+        this.attributes = read(path, options);
+    }
+
+    /**
+     * @return 路径不存在时，返回null。
+     */
+    static BasicFileAttributes read(Path path, LinkOption... options) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, options);
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import com.ai.southernquiet.FrameworkAutoConfiguration;
+import com.ai.southernquiet.filesystem.FileSystem;
+import com.ai.southernquiet.filesystem.FileSystemException;
+import com.ai.southernquiet.filesystem.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 把文件分布到多个根目录（通常位于不同的磁盘）上的驱动，吞吐量随磁盘数量增长。
+ * <ul>
+ * <li>文件按规格化路径在一致性哈希环上分配到唯一的分片，增减根目录时只有少部分路径改变归属。</li>
+ * <li>目录是所有分片共有的结构，创建、删除、刷新时间会作用于所有分片。</li>
+ * <li>列举目录时合并所有分片的结果，再统一排序分页。</li>
+ * <li>根目录变化后，改变归属的已有文件不会自动迁移，需要在停机时重新分布。</li>
+ * </ul>
+ */
+public class ShardedLocalFileSystem implements FileSystem {
+    /**
+     * 每个分片在哈希环上的虚拟节点数，使路径分布均匀。
+     */
+    private final static int VIRTUAL_NODES = 128;
+
+    private final List<LocalFileSystem> shards;
+    private final TreeMap<Integer, LocalFileSystem> ring = new TreeMap<>();
+
+    /**
+     * 每个分片的去重文件池位于其根目录旁的 {@code <root>_blobs}，保证与根目录在同一文件存储上。
+     */
+    public ShardedLocalFileSystem(FrameworkAutoConfiguration.LocalFileSystemProperties properties) {
+        List<String> roots = properties.getWorkingRoots();
+        if (roots.isEmpty()) throw new IllegalArgumentException("workingRoots");
+
+        this.shards = new ArrayList<>(roots.size());
+        for (String root : roots) {
+            LocalFileSystem shard = new LocalFileSystem(properties, root, root + "_blobs");
+            shards.add(shard);
+
+            //以根目录为节点标识，分片的先后顺序变化不影响分布
+            for (int i = 0; i < VIRTUAL_NODES; ++i) {
+                ring.put(hash(root + "#" + i), shard);
+            }
+        }
+    }
+
+    @Override
+    public void createDirectory(String path) {
+        shards.forEach(shard -> shard.createDirectory(path));
+    }
+
+    @Override
+    public void put(String path, InputStream stream) throws InvalidFileException {
+        getShard(path).put(path, stream);
+    }
+
+    @Override
+    public void put(String path, CharSequence txt) throws InvalidFileException {
+        getShard(path).put(path, txt);
+    }
+
+    @Override
+    public void putAtomically(String path, InputStream stream) throws InvalidFileException {
+        getShard(path).putAtomically(path, stream);
+    }
+
+    /**
+     * 按分片分组，每个分片批量写入。
+     */
+    @Override
+    public void putAll(Map<String, ? extends InputStream> files) throws InvalidFileException {
+        Map<LocalFileSystem, Map<String, InputStream>> groups = new IdentityHashMap<>();
+        files.forEach((path, stream) -> groups.computeIfAbsent(getShard(path), shard -> new LinkedHashMap<>()).put(path, stream));
+
+        for (Map.Entry<LocalFileSystem, Map<String, InputStream>> entry : groups.entrySet()) {
+            entry.getKey().putAll(entry.getValue());
+        }
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return null != meta(path);
+    }
+
+    @Override
+    public Map<String, Boolean> existsAll(Collection<String> paths) {
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        metaAll(paths).forEach((path, meta) -> result.put(path, null != meta));
+        return result;
+    }
+
+    @Override
+    public InputStream openReadStream(String path) throws InvalidFileException {
+        return getShard(path).openReadStream(path);
+    }
+
+    @Override
+    public RangedChannel openReadChannel(String path, long position, long count) throws InvalidFileException {
+        return getShard(path).openReadChannel(path, position, count);
+    }
+
+    @Override
+    public OutputStream openWriteStream(String path) throws InvalidFileException {
+        return getShard(path).openWriteStream(path);
+    }
+
+    @Override
+    public void move(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        transfer(true, source, destination, replaceExisting);
+    }
+
+    @Override
+    public void copy(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        transfer(false, source, destination, replaceExisting);
+    }
+
+    @Override
+    public void delete(String path) {
+        PathMeta meta = getShard(path).meta(path);
+        if (null != meta && !meta.isDirectory()) {
+            getShard(path).delete(path);
+            return;
+        }
+
+        shards.forEach(shard -> shard.delete(path));
+    }
+
+    /**
+     * 路径不存在的分片上删除是空操作，因此直接在每个分片上批量删除全部路径。
+     */
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        shards.forEach(shard -> shard.deleteAll(paths));
+    }
+
+    @Override
+    public void touchCreation(String path) {
+        forEachOwner(path, shard -> shard.touchCreation(path));
+    }
+
+    @Override
+    public void touchLastModified(String path) {
+        forEachOwner(path, shard -> shard.touchLastModified(path));
+    }
+
+    @Override
+    public void touchLastAccess(String path) {
+        forEachOwner(path, shard -> shard.touchLastAccess(path));
+    }
+
+    /**
+     * 文件只在其所属的分片上查找；目录可能只存在于部分分片，返回第一个找到的。
+     */
+    @Override
+    public PathMeta meta(String path) {
+        LocalFileSystem owner = getShard(path);
+
+        PathMeta meta = owner.meta(path);
+        return null != meta ? meta : findDirectory(path, owner);
+    }
+
+    /**
+     * 先在所属的分片上批量查找，未找到的路径再逐个在其他分片上查找目录。
+     */
+    @Override
+    public Map<String, PathMeta> metaAll(Collection<String> paths) {
+        Map<LocalFileSystem, List<String>> groups = new IdentityHashMap<>();
+        paths.forEach(path -> groups.computeIfAbsent(getShard(path), shard -> new ArrayList<>()).add(path));
+
+        Map<String, PathMeta> found = new LinkedHashMap<>();
+        groups.forEach((shard, group) -> found.putAll(shard.metaAll(group)));
+
+        Map<String, PathMeta> result = new LinkedHashMap<>();
+        for (String path : paths) {
+            PathMeta meta = found.get(path);
+            result.put(path, null != meta ? meta : findDirectory(path, getShard(path)));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Stream<? extends PathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        Map<String, PathMeta> directories = new LinkedHashMap<>();
+        try (Stream<PathMeta> stream = merge(path, shard -> shard.directories(path, search, recursive))) {
+            stream.forEach(meta -> directories.putIfAbsent(meta.getPath(), meta));
+        }
+
+        return FileSystem.page(directories.values().stream(), offset, limit, sort);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return FileSystem.page(merge(path, shard -> shard.files(path, search, recursive)), offset, limit, sort);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> directoriesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        Map<String, PathMeta> directories = new LinkedHashMap<>();
+        try (Stream<PathMeta> stream = merge(path, shard -> shard.directoriesWithPrefix(path, prefix))) {
+            stream.forEach(meta -> directories.putIfAbsent(meta.getPath(), meta));
+        }
+
+        return directories.values().stream();
+    }
+
+    @Override
+    public Stream<? extends PathMeta> filesWithPrefix(String path, String prefix) throws PathNotFoundException {
+        return merge(path, shard -> shard.filesWithPrefix(path, prefix));
+    }
+
+    /**
+     * 在所有分片上订阅，保证任一分片上的变化都能收到。
+     */
+    @Override
+    public PathWatcher watch(String path, Consumer<PathEvent> listener) throws PathNotFoundException {
+        PathMeta meta = meta(path);
+        if (null == meta || !meta.isDirectory()) throw new PathNotFoundException(path);
+
+        List<PathWatcher> watchers = new ArrayList<>(shards.size());
+        try {
+            for (LocalFileSystem shard : shards) {
+                shard.createDirectory(path);
+                watchers.add(shard.watch(path, listener));
+            }
+        }
+        catch (PathNotFoundException | RuntimeException e) {
+            watchers.forEach(PathWatcher::close);
+            throw e;
+        }
+
+        return () -> watchers.forEach(PathWatcher::close);
+    }
+
+    LocalFileSystem getShard(String path) {
+        int hash = hash(NormalizedPath.of(path).toString());
+
+        Map.Entry<Integer, LocalFileSystem> entry = ring.ceilingEntry(hash);
+        return (null == entry ? ring.firstEntry() : entry).getValue();
+    }
+
+    private PathMeta findDirectory(String path, LocalFileSystem owner) {
+        for (LocalFileSystem shard : shards) {
+            if (shard == owner) continue;
+
+            PathMeta meta = shard.meta(path);
+            if (null != meta && meta.isDirectory()) return meta;
+        }
+
+        return null;
+    }
+
+    private void forEachOwner(String path, Consumer<LocalFileSystem> action) {
+        PathMeta meta = getShard(path).meta(path);
+        if (null != meta && !meta.isDirectory()) {
+            action.accept(getShard(path));
+            return;
+        }
+
+        shards.stream().filter(shard -> null != shard.meta(path)).forEach(action);
+    }
+
+    private Stream<PathMeta> merge(String path, Listing listing) throws PathNotFoundException {
+        Stream<PathMeta> stream = null;
+        for (LocalFileSystem shard : shards) {
+            try {
+                Stream<? extends PathMeta> shardStream = listing.list(shard);
+                stream = null == stream ? shardStream.map(PathMeta.class::cast) : Stream.concat(stream, shardStream);
+            }
+            catch (PathNotFoundException e) {
+                //目录不存在于该分片
+            }
+        }
+
+        if (null == stream) throw new PathNotFoundException(path);
+
+        return stream;
+    }
+
+    /**
+     * 源与目标在同一分片时交给分片处理，否则逐个文件跨分片传输。
+     */
+    private void transfer(boolean move, String source, String destination, boolean replaceExisting) throws FileSystemException {
+        PathMeta src = meta(source);
+        if (null == src) throw new PathNotFoundException(source);
+
+        PathMeta dest = meta(destination);
+
+        if (!src.isDirectory()) {
+            String target = null != dest && dest.isDirectory() ? destination + PATH_SEPARATOR + src.getName() : destination;
+            transferFile(move, src.getPath(), target, replaceExisting);
+            return;
+        }
+
+        if (null != dest && !dest.isDirectory()) throw new FileSystemException("不能把目录移动或复制到文件。");
+
+        String sourcePath = src.getPath();
+        String destinationPath = NormalizedPath.of(destination).toString();
+
+        List<String> directories;
+        try (Stream<? extends PathMeta> stream = directories(sourcePath, "", true)) {
+            directories = stream.map(PathMeta::getPath).collect(Collectors.toList());
+        }
+
+        createDirectory(destinationPath);
+        for (String directory : directories) {
+            createDirectory(destinationPath + directory.substring(sourcePath.length()));
+        }
+
+        List<String> files;
+        try (Stream<? extends PathMeta> stream = files(sourcePath, "", true)) {
+            files = stream.map(PathMeta::getPath).collect(Collectors.toList());
+        }
+
+        for (String file : files) {
+            transferFile(move, file, destinationPath + file.substring(sourcePath.length()), replaceExisting);
+        }
+
+        if (move) {
+            try (Stream<? extends PathMeta> stream = files(sourcePath, "", true)) {
+                //未被替换而跳过的文件仍留在源目录中
+                if (stream.findAny().isPresent()) return;
+            }
+
+            shards.forEach(shard -> shard.delete(sourcePath));
+        }
+    }
+
+    private void transferFile(boolean move, String source, String target, boolean replaceExisting) throws FileSystemException {
+        LocalFileSystem from = getShard(source);
+        LocalFileSystem to = getShard(target);
+
+        if (from == to) {
+            if (move) {
+                from.move(source, target, replaceExisting);
+            }
+            else {
+                from.copy(source, target, replaceExisting);
+            }
+
+            return;
+        }
+
+        if (!replaceExisting && to.exists(target)) return;
+
+        //跨分片时与同一分片内的移动、复制一样保留文件的时间
+        try (InputStream inputStream = from.openReadStream(source)) {
+            BasicFileAttributes attributes = Files.readAttributes(from.getWorkingPath(source), BasicFileAttributes.class);
+            to.putAtomically(target, inputStream);
+
+            Files.getFileAttributeView(to.getWorkingPath(target), BasicFileAttributeView.class)
+                .setTimes(attributes.lastModifiedTime(), attributes.lastAccessTime(), attributes.creationTime());
+        }
+        catch (IOException e) {
+            throw new FileSystemException(source + " " + target, e);
+        }
+
+        if (move) {
+            from.delete(source);
+        }
+    }
+
+    /**
+     * 对String.hashCode再做一次MurmurHash3的混淆，使相近的路径在环上分散。
+     */
+    private static int hash(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    @FunctionalInterface
+    private interface Listing {
+        Stream<? extends PathMeta> list(LocalFileSystem shard) throws PathNotFoundException;
+    }
+}
@@ -0,0 +1,82 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量移动或复制的进度，计数在并发的传输线程中更新。
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class TransferProgress {
+    private final long startNanoTime = System.nanoTime();
+
+    private final int totalFiles;
+    private final long totalBytes;
+    private final AtomicInteger transferredFiles = new AtomicInteger();
+    private final AtomicInteger skippedFiles = new AtomicInteger();
+    private final AtomicLong transferredBytes = new AtomicLong();
+
+    TransferProgress(int totalFiles, long totalBytes) {
+        this.totalFiles = totalFiles;
+        this.totalBytes = totalBytes;
+    }
+
+    void transferred(long bytes) {
+        transferredFiles.incrementAndGet();
+        transferredBytes.addAndGet(bytes);
+    }
+
+    void skipped() {
+        skippedFiles.incrementAndGet();
+    }
+
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int getTransferredFiles() {
+        return transferredFiles.get();
+    }
+
+    /**
+     * 因目标已存在且不替换而跳过的文件数。
+     */
+    public int getSkippedFiles() {
+        return skippedFiles.get();
+    }
+
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    public Duration getElapsed() {
+        return Duration.ofNanos(System.nanoTime() - startNanoTime);
+    }
+
+    /**
+     * 吞吐量，单位：byte/s。
+     */
+    public double getThroughput() {
+        long nanos = System.nanoTime() - startNanoTime;
+        return 0 == nanos ? 0 : transferredBytes.get() * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "files %d/%d (skipped %d), bytes %d/%d, elapsed %dms, throughput %.1fKB/s",
+            getTransferredFiles(),
+            totalFiles,
+            getSkippedFiles(),
+            getTransferredBytes(),
+            totalBytes,
+            getElapsed().toMillis(),
+            getThroughput() / 1024
+        );
+    }
+}
@@ -0,0 +1,214 @@
+package com.ai.southernquiet.filesystem.driver;
+
+import com.ai.southernquiet.filesystem.FileSystemException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 目录树的批量移动及复制。
+ * <ul>
+ * <li>移动到同一文件存储上不存在的目标时，直接重命名整棵树。</li>
+ * <li>其他情况下先创建目标目录结构，再在有界的线程池中并发传输文件；移动完成后清理源目录树中已清空的目录。</li>
+ * </ul>
+ */
+class TreeTransfer {
+    private ParallelPathWalker walker;
+    private BlobStore blobStore;
+    private ExecutorService executor;
+
+    /**
+     * @param walker      为null时单线程遍历源目录树
+     * @param blobStore   不为null时以硬链接的方式复制文件
+     * @param concurrency 并发传输的线程数，不大于1则在调用线程中逐个传输
+     */
+    TreeTransfer(ParallelPathWalker walker, BlobStore blobStore, int concurrency) {
+        this.walker = walker;
+        this.blobStore = blobStore;
+
+        if (concurrency > 1) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sq-local-fs-transfer-");
+            threadFactory.setDaemon(true);
+
+            this.executor = new ThreadPoolExecutor(
+                concurrency,
+                concurrency,
+                60,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(concurrency * 64),
+                threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy()
+            );
+        }
+    }
+
+    /**
+     * @param listener 每传输或跳过一个文件后调用，可能在传输线程中调用。可以为null。
+     */
+    TransferProgress transfer(boolean move, Path src, Path dest, boolean replaceExisting, Consumer<TransferProgress> listener) throws IOException, FileSystemException {
+        if (!Files.isDirectory(src)) {
+            Path target = Files.isDirectory(dest) ? dest.resolve(src.getFileName()) : dest;
+            long size = Files.size(src);
+            TransferProgress progress = new TransferProgress(1, size);
+
+            Files.createDirectories(target.getParent());
+            transferFile(move, src, target, size, replaceExisting, progress, listener);
+            return progress;
+        }
+
+        if (Files.exists(dest) && !Files.isDirectory(dest)) throw new FileSystemException("不能把目录移动或复制到文件。");
+
+        if (move && Files.notExists(dest)) {
+            Files.createDirectories(dest.getParent());
+
+            if (Files.getFileStore(src).equals(Files.getFileStore(dest.getParent()))) {
+                Files.move(src, dest);
+                return new TransferProgress(0, 0);
+            }
+        }
+
+        List<PathAttributes> paths = scan(src);
+        List<PathAttributes> files = paths.stream().filter(p -> !p.attributes.isDirectory()).collect(Collectors.toList());
+        TransferProgress progress = new TransferProgress(files.size(), files.stream().mapToLong(p -> p.attributes.size()).sum());
+
+        Files.createDirectories(dest);
+        for (PathAttributes directory : paths) {
+            if (directory.attributes.isDirectory()) {
+                Files.createDirectories(dest.resolve(src.relativize(directory.path)));
+            }
+        }
+
+        List<Future<?>> futures = new ArrayList<>(files.size());
+        for (PathAttributes file : files) {
+            Path target = dest.resolve(src.relativize(file.path));
+            Runnable task = () -> {
+                try {
+                    transferFile(move, file.path, target, file.attributes.size(), replaceExisting, progress, listener);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+
+            if (null == executor) {
+                task.run();
+            }
+            else {
+                futures.add(executor.submit(task));
+            }
+        }
+
+        await(futures);
+
+        if (move) {
+            removeEmptyDirectories(src, paths);
+        }
+
+        return progress;
+    }
+
+    private List<PathAttributes> scan(Path src) throws IOException {
+        if (null != walker) {
+            return walker.walk(src, p -> !p.path.getFileName().toString().endsWith(LocalFileSystem.TEMP_FILE_SUFFIX));
+        }
+
+        try (Stream<Path> stream = Files.walk(src)) {
+            return stream
+                .filter(p -> !p.equals(src) && !p.getFileName().toString().endsWith(LocalFileSystem.TEMP_FILE_SUFFIX))
+                .map(PathAttributes::new)
+                .filter(p -> null != p.attributes)
+                .collect(Collectors.toList());
+        }
+    }
+
+    private void transferFile(boolean move, Path src, Path target, long size, boolean replaceExisting, TransferProgress progress, Consumer<TransferProgress> listener) throws IOException {
+        try {
+            if (move) {
+                if (replaceExisting) {
+                    Files.move(src, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                else {
+                    Files.move(src, target);
+                }
+            }
+            else if (null != blobStore) {
+                blobStore.copy(src, target, replaceExisting);
+            }
+            else {
+                if (replaceExisting) {
+                    Files.copy(src, target, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+                }
+                else {
+                    Files.copy(src, target, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+
+            progress.transferred(size);
+        }
+        catch (FileAlreadyExistsException e) {
+            progress.skipped();
+        }
+
+        if (null != listener) {
+            listener.accept(progress);
+        }
+    }
+
+    /**
+     * 等待所有传输完成，再抛出其中第一个异常。
+     */
+    private void await(List<Future<?>> futures) throws IOException {
+        Throwable failure = null;
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch (ExecutionException e) {
+                if (null == failure) {
+                    failure = e.getCause();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new IOException(e);
+            }
+        }
+
+        if (null == failure) return;
+        if (failure instanceof UncheckedIOException) throw ((UncheckedIOException) failure).getCause();
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        throw new IOException(failure);
+    }
+
+    /**
+     * 由深到浅删除已清空的目录，仍有文件（未被替换而跳过）的目录保留。
+     */
+    private void removeEmptyDirectories(Path src, List<PathAttributes> paths) throws IOException {
+        List<Path> directories = paths.stream()
+            .filter(p -> p.attributes.isDirectory())
+            .map(p -> p.path)
+            .sorted(Comparator.comparing(Path::getNameCount).reversed())
+            .collect(Collectors.toList());
+        directories.add(src);
+
+        for (Path directory : directories) {
+            try {
+                Files.deleteIfExists(directory);
+            }
+            catch (DirectoryNotEmptyException e) {
+                //pass
+            }
+        }
+    }
+}
@@ -10,7 +10,9 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -20,10 +22,12 @@ public class FileSystemKeyValueStore implements KeyValueStore {
     private FileSystem fileSystem;
     private String workingRoot; //Store在FileSystem中的路径
     private String nameSeparator; //文件名中不同部分的分隔
+    private FanOutLayout layout; //按key分散到子目录
 
     public FileSystemKeyValueStore(FrameworkAutoConfiguration.KeyValueStoreProperties.FileSystem properties, FileSystem fileSystem) {
         this.workingRoot = properties.getWorkingRoot();
         this.nameSeparator = properties.getNameSeparator();
+        this.layout = new FanOutLayout(properties.getFanOutLevels(), properties.getFanOutWidth());
 
         this.fileSystem = fileSystem;
     }
@@ -31,7 +35,7 @@ public class FileSystemKeyValueStore implements KeyValueStore {
     @Override
     public <T extends Serializable> void put(String key, T value, int ttl) {
         try {
-            fileSystem.put(getFilePath(key, ttl), serialize(value));
+            fileSystem.putAtomically(getFilePath(key, ttl), serialize(value));
         }
         catch (InvalidFileException e) {
             throw new RuntimeException(e);
@@ -41,7 +45,7 @@ public class FileSystemKeyValueStore implements KeyValueStore {
     @Override
     public <T extends Serializable> void set(String key, T value) {
         try {
-            fileSystem.put(getFilePath(key, -1), serialize(value));
+            fileSystem.putAtomically(getFilePath(key, -1), serialize(value));
         }
         catch (InvalidFileException e) {
             throw new RuntimeException(e);
@@ -52,7 +56,7 @@ public class FileSystemKeyValueStore implements KeyValueStore {
     @Override
     public <T extends Serializable> T get(String key) {
         try {
-            Optional<? extends PathMeta> opt = fileSystem.files(workingRoot, getKeyPrefix(key)).findFirst();
+            Optional<? extends PathMeta> opt = fileSystem.filesWithPrefix(getDirectory(key), getKeyPrefix(key)).findFirst();
 
             if (opt.isPresent()) {
                 PathMeta meta = opt.get();
@@ -83,7 +87,7 @@ public class FileSystemKeyValueStore implements KeyValueStore {
     @Override
     public void touch(String key, Integer ttl) {
         try {
-            Optional<? extends PathMeta> opt = fileSystem.files(workingRoot, getKeyPrefix(key)).findFirst();
+            Optional<? extends PathMeta> opt = fileSystem.filesWithPrefix(getDirectory(key), getKeyPrefix(key)).findFirst();
 
             if (opt.isPresent()) {
                 PathMeta meta = opt.get();
@@ -103,18 +107,19 @@ public class FileSystemKeyValueStore implements KeyValueStore {
     }
 
     @Override
-    @SuppressWarnings("all")
     public void remove(String... keys) {
-        Stream.of(keys).forEach(key -> {
-            try {
-                fileSystem.files(workingRoot, getKeyPrefix(key))
-                    .findFirst()
-                    .ifPresent(meta -> fileSystem.delete(meta.getPath()));
-            }
-            catch (PathNotFoundException e) {
-                return;
-            }
-        });
+        List<String> paths = Stream.of(keys)
+            .flatMap(key -> {
+                try {
+                    return fileSystem.filesWithPrefix(getDirectory(key), getKeyPrefix(key)).limit(1).map(PathMeta::getPath);
+                }
+                catch (PathNotFoundException e) {
+                    return Stream.empty();
+                }
+            })
+            .collect(Collectors.toList());
+
+        fileSystem.deleteAll(paths);
     }
 
     protected String getFileName(String key, int ttl) {
@@ -125,8 +130,12 @@ public class FileSystemKeyValueStore implements KeyValueStore {
         return key + nameSeparator;
     }
 
+    private String getDirectory(String key) {
+        return layout.getDirectory(workingRoot, key);
+    }
+
     private String getFilePath(String key, int ttl) {
-        return workingRoot + FileSystem.PATH_SEPARATOR + getFileName(key, ttl);
+        return getDirectory(key) + FileSystem.PATH_SEPARATOR + getFileName(key, ttl);
     }
 
     private int getTTLFromFileName(String name) {
@@ -139,7 +148,7 @@ public class FileSystemKeyValueStore implements KeyValueStore {
 
     private Stream<? extends PathMeta> getMetaStream() {
         try {
-            return fileSystem.files(workingRoot);
+            return fileSystem.files(workingRoot, "", layout.getLevels() > 0);
         }
         catch (PathNotFoundException e) {
             throw new RuntimeException(e);
@@ -1,11 +1,25 @@
 package test.filesystem;
 
 import com.ai.southernquiet.FrameworkAutoConfiguration;
+import com.ai.southernquiet.filesystem.ChecksumMismatchException;
+import com.ai.southernquiet.filesystem.CompressedFileSystem;
+import com.ai.southernquiet.filesystem.ContentCachedFileSystem;
 import com.ai.southernquiet.filesystem.FileSystem;
+import com.ai.southernquiet.filesystem.FileSystemException;
 import com.ai.southernquiet.filesystem.InvalidFileException;
+import com.ai.southernquiet.filesystem.MetaCachedFileSystem;
 import com.ai.southernquiet.filesystem.NormalizedPath;
+import com.ai.southernquiet.filesystem.PathEvent;
+import com.ai.southernquiet.filesystem.PathMeta;
+import com.ai.southernquiet.filesystem.PathMetaSort;
 import com.ai.southernquiet.filesystem.PathNotFoundException;
+import com.ai.southernquiet.filesystem.PathWatcher;
+import com.ai.southernquiet.filesystem.PollingPathWatcher;
+import com.ai.southernquiet.filesystem.RangedChannel;
+import com.ai.southernquiet.filesystem.driver.LocalFileSystem;
+import com.ai.southernquiet.filesystem.driver.ShardedLocalFileSystem;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -14,11 +28,36 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.util.StreamUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @SpringBootTest(classes = FrameworkAutoConfiguration.class)
 @RunWith(SpringRunner.class)
@@ -77,6 +116,42 @@ public class FileSystemTest {
         normalizedPath = new NormalizedPath("/test/hello.text");
         Assert.assertEquals("/test", normalizedPath.getParent());
         Assert.assertEquals("hello.text", normalizedPath.getName());
+
+        normalizedPath = new NormalizedPath("\\test\\ \\sub\\hello.text");
+        Assert.assertEquals("/test/sub/hello.text", normalizedPath.toString());
+        Assert.assertEquals("/test/sub", normalizedPath.getParentPath().toString());
+        Assert.assertEquals(new NormalizedPath(new String[]{"test", "sub", "hello.text"}), normalizedPath);
+        Assert.assertEquals(new NormalizedPath("test/sub/hello.text").hashCode(), normalizedPath.hashCode());
+
+        Assert.assertEquals("/", new PathMeta("/").getPath());
+        Assert.assertEquals("/hello.text", new PathMeta("hello.text").getPath());
+        Assert.assertEquals("/test/hello.text", new PathMeta("/test/hello.text").getPath());
+    }
+
+    @Test
+    public void internPath() {
+        int capacity = NormalizedPath.getInternCapacity();
+        NormalizedPath.setInternCapacity(16);
+
+        try {
+            Assert.assertSame(NormalizedPath.of("/test/hello.text"), NormalizedPath.of("/test/hello.text"));
+            Assert.assertEquals(NormalizedPath.of("/test/hello.text"), NormalizedPath.of("test//hello.text"));
+
+            NormalizedPath interned = NormalizedPath.of("/test/hello.text");
+            interned.getParentNames()[0] = "changed";
+            Assert.assertEquals("/test/hello.text", NormalizedPath.of("/test/hello.text").toString());
+
+            try {
+                interned.setName("changed");
+                Assert.fail();
+            }
+            catch (UnsupportedOperationException e) {
+                Assert.assertEquals("hello.text", NormalizedPath.of("/test/hello.text").getName());
+            }
+        }
+        finally {
+            NormalizedPath.setInternCapacity(capacity);
+        }
     }
 
     @Test
@@ -93,6 +168,21 @@ public class FileSystemTest {
         Assert.assertFalse(fileSystem.exists("hello/world.txt"));
     }
 
+    @Test
+    public void atomicIO() {
+        try {
+            fileSystem.putAtomically("atomic/world.txt", "你好，");
+            fileSystem.putAtomically("atomic/world.txt", "你好，Spring Boot。");
+            Assert.assertEquals("你好，Spring Boot。", fileSystem.read("atomic/world.txt"));
+            Assert.assertEquals(1, fileSystem.files("atomic").count());
+        }
+        catch (InvalidFileException | PathNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+
+        fileSystem.delete("atomic/world.txt");
+    }
+
     @Test
     public void streamingIO() {
         String path = "streaming/hello/world.txt";
@@ -124,6 +214,566 @@ public class FileSystemTest {
         Assert.assertEquals("你好，Spring Boot。", result);
     }
 
+    @Test
+    public void rangedRead() throws IOException {
+        String path = "ranged/hello.txt";
+
+        try {
+            fileSystem.put(path, "0123456789");
+
+            try (RangedChannel channel = fileSystem.openReadChannel(path, 3, 4)) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                channel.transferTo(Channels.newChannel(outputStream));
+                Assert.assertEquals("3456", outputStream.toString(StandardCharsets.UTF_8.name()));
+            }
+
+            try (RangedChannel channel = fileSystem.openReadChannel(path, 7, -1)) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                channel.transferTo(Channels.newChannel(outputStream));
+                Assert.assertEquals("789", outputStream.toString(StandardCharsets.UTF_8.name()));
+            }
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+
+        fileSystem.delete(path);
+    }
+
+    @Test
+    public void putFileStream() throws IOException {
+        String path = "streaming/put/file.txt";
+
+        File tmp = File.createTempFile("sq_put_file_stream", "");
+        tmp.deleteOnExit();
+        Files.write(tmp.toPath(), "你好，Spring Boot。".getBytes(StandardCharsets.UTF_8));
+
+        try (FileInputStream inputStream = new FileInputStream(tmp)) {
+            fileSystem.put(path, inputStream);
+            Assert.assertEquals("你好，Spring Boot。", fileSystem.read(path));
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+
+        fileSystem.delete(path);
+    }
+
+    @Test
+    public void copyDirectory() {
+        fileSystem.delete("copy");
+
+        try {
+            fileSystem.put("copy/src/a/b.txt", "你好，Spring Boot。");
+            fileSystem.put("copy/src/c.txt", "你好，");
+            fileSystem.copy("copy/src", "copy/dest");
+
+            Assert.assertEquals("你好，Spring Boot。", fileSystem.read("copy/dest/a/b.txt"));
+            Assert.assertEquals("你好，", fileSystem.read("copy/dest/c.txt"));
+            Assert.assertTrue(fileSystem.exists("copy/src/a/b.txt"));
+        }
+        catch (FileSystemException e) {
+            throw new RuntimeException(e);
+        }
+
+        fileSystem.delete("copy");
+    }
+
+    @Test
+    public void metaCache() {
+        FileSystem cached = new MetaCachedFileSystem(fileSystem, 16, Duration.ofMinutes(1));
+        cached.delete("cache");
+
+        try {
+            Assert.assertFalse(cached.exists("cache/a.txt"));
+            Assert.assertFalse(cached.exists("cache"));
+
+            cached.put("cache/a.txt", "你好，");
+            Assert.assertTrue(cached.exists("cache/a.txt"));
+            Assert.assertTrue(cached.exists("cache"));
+
+            cached.move("cache/a.txt", "cache/b.txt");
+            Assert.assertFalse(cached.exists("cache/a.txt"));
+            Assert.assertTrue(cached.exists("cache/b.txt"));
+        }
+        catch (FileSystemException e) {
+            throw new RuntimeException(e);
+        }
+
+        cached.delete("cache");
+        Assert.assertFalse(cached.exists("cache/b.txt"));
+    }
+
+    @Test
+    public void contentCache() {
+        FileSystem cached = new ContentCachedFileSystem(fileSystem, null, 1024, 4096, 0, 0);
+
+        try {
+            cached.put("content_cache/a.txt", "你好，");
+            Assert.assertEquals("你好，", cached.read("content_cache/a.txt"));
+            Assert.assertEquals("你好，", cached.read("content_cache/a.txt"));
+
+            cached.put("content_cache/a.txt", "你好，Spring Boot。");
+            Assert.assertEquals("你好，Spring Boot。", cached.read("content_cache/a.txt"));
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+
+        cached.delete("content_cache");
+    }
+
+    @Test
+    public void compression() throws IOException {
+        FileSystem compressed = new CompressedFileSystem(fileSystem, 64, 1, Collections.emptyList(), Collections.singletonList("png"));
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            builder.append("你好，Spring Boot。").append(i).append('\n');
+        }
+        String txt = builder.toString();
+
+        try {
+            compressed.put("compression/a.txt", txt);
+            Assert.assertEquals(txt, compressed.read("compression/a.txt"));
+            Assert.assertTrue(fileSystem.meta("compression/a.txt").getSize() < txt.length());
+
+            compressed.put("compression/b.txt", "你好，");
+            Assert.assertEquals("你好，", fileSystem.read("compression/b.txt"));
+
+            try (OutputStream outputStream = compressed.openWriteStream("compression/c.txt")) {
+                outputStream.write(txt.getBytes(StandardCharsets.UTF_8));
+            }
+            try (OutputStream outputStream = compressed.openWriteStream("compression/c.txt")) {
+                outputStream.write("Spring Boot。".getBytes(StandardCharsets.UTF_8));
+            }
+            Assert.assertEquals(txt + "Spring Boot。", compressed.read("compression/c.txt"));
+
+            //内容本身以压缩文件头开头时不能被误认为已压缩
+            byte[] head = {(byte) 0xC5, 'S', 'Q', 'Z', 1};
+            ByteArrayOutputStream large = new ByteArrayOutputStream();
+            large.write(head);
+            large.write(txt.getBytes(StandardCharsets.UTF_8));
+            for (byte[] bytes : Arrays.asList(head, large.toByteArray())) {
+                compressed.put("compression/d.bin", new ByteArrayInputStream(bytes));
+                try (InputStream inputStream = compressed.openReadStream("compression/d.bin")) {
+                    Assert.assertArrayEquals(bytes, StreamUtils.copyToByteArray(inputStream));
+                }
+            }
+
+            compressed.put("compression/e.bin", new ByteArrayInputStream(head));
+            try (RangedChannel channel = compressed.openReadChannel("compression/e.bin", 1, 3)) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                channel.transferTo(Channels.newChannel(outputStream));
+                Assert.assertEquals("SQZ", outputStream.toString(StandardCharsets.UTF_8.name()));
+            }
+
+            try {
+                compressed.openReadChannel("compression/a.txt", 0, 1);
+                Assert.fail();
+            }
+            catch (InvalidFileException e) {
+                //已压缩的文件不支持范围读取
+            }
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+
+        compressed.delete("compression");
+    }
+
+    @Test
+    public void shardedIO() throws IOException {
+        List<Path> roots = Arrays.asList(Files.createTempDirectory("sq_shard_a"), Files.createTempDirectory("sq_shard_b"));
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties properties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        properties.setWorkingRoots(roots.stream().map(Path::toString).collect(Collectors.toList()));
+        FileSystem sharded = new ShardedLocalFileSystem(properties);
+
+        try {
+            for (int i = 0; i < 16; ++i) {
+                sharded.put("shard/" + i + ".txt", String.valueOf(i));
+            }
+
+            Assert.assertEquals(16, sharded.files("shard").count());
+            Assert.assertEquals("7", sharded.read("shard/7.txt"));
+
+            //跨分片移动的文件也要保留修改时间
+            FileTime lastModifiedTime = FileTime.from(Instant.now().minus(Duration.ofDays(1)).truncatedTo(ChronoUnit.SECONDS));
+            for (Path root : roots) {
+                try (Stream<Path> stream = Files.walk(root)) {
+                    for (Path file : stream.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                        Files.setLastModifiedTime(file, lastModifiedTime);
+                    }
+                }
+            }
+
+            sharded.move("shard", "moved");
+            Assert.assertFalse(sharded.exists("shard"));
+            Assert.assertEquals(16, sharded.files("moved").count());
+
+            for (int i = 0; i < 16; ++i) {
+                Assert.assertEquals(lastModifiedTime.toInstant(), sharded.meta("moved/" + i + ".txt").getLastModifiedTime());
+            }
+        }
+        catch (FileSystemException e) {
+            throw new RuntimeException(e);
+        }
+
+        sharded.delete("moved");
+    }
+
+    @Test(expected = ChecksumMismatchException.class)
+    public void checksum() throws IOException {
+        Path root = Files.createTempDirectory("sq_checksum");
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties properties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        properties.setWorkingRoot(root.toString());
+        properties.setChecksum(true);
+        FileSystem checksummed = new LocalFileSystem(properties);
+
+        try {
+            checksummed.put("checksum/a.txt", "你好，Spring Boot。");
+            Assume.assumeNotNull(checksummed.meta("checksum/a.txt").getChecksum());
+            Assert.assertEquals("你好，Spring Boot。", checksummed.read("checksum/a.txt"));
+
+            Files.write(root.resolve("checksum/a.txt"), "再见".getBytes(StandardCharsets.UTF_8), StandardOpenOption.WRITE);
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+
+        try (InputStream inputStream = checksummed.openReadStream("checksum/a.txt")) {
+            StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8);
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void dedup() throws IOException {
+        Path root = Files.createTempDirectory("sq_dedup");
+        Path blobRoot = Files.createTempDirectory("sq_dedup_blobs");
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties properties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        properties.setWorkingRoot(root.toString());
+        properties.getDedup().setEnable(true);
+        properties.getDedup().setBlobRoot(blobRoot.toString());
+        properties.getDedup().setCollectInterval(null);
+        LocalFileSystem deduped = new LocalFileSystem(properties);
+
+        try {
+            deduped.put("dedup/a.txt", "你好");
+            Files.setLastModifiedTime(root.resolve("dedup/a.txt"), FileTime.from(Instant.now().minus(Duration.ofDays(1))));
+
+            //写入相同的内容共享同一份数据，但修改时间必须是本次写入的时间
+            Instant before = Instant.now().minusSeconds(2);
+            deduped.put("dedup/b.txt", "你好");
+            Assert.assertTrue(deduped.meta("dedup/b.txt").getLastModifiedTime().isAfter(before));
+
+            //原地修改共享的文件不影响其他路径
+            try (OutputStream outputStream = deduped.openWriteStream("dedup/b.txt")) {
+                outputStream.write("！".getBytes(StandardCharsets.UTF_8));
+            }
+            Assert.assertEquals("你好", deduped.read("dedup/a.txt"));
+            Assert.assertEquals("你好！", deduped.read("dedup/b.txt"));
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+
+        deduped.delete("dedup");
+        deduped.collectBlobs();
+
+        try (Stream<Path> blobs = Files.walk(blobRoot)) {
+            Assert.assertEquals(0, blobs.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    public void mappedRead() throws Exception {
+        Path root = Files.createTempDirectory("sq_mapped");
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties properties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        properties.setWorkingRoot(root.toString());
+        properties.getMappedRead().setEnable(true);
+        properties.getMappedRead().setCapacity(2);
+        properties.getMappedRead().setFileSizeThreshold(1024);
+        LocalFileSystem mapped = new LocalFileSystem(properties);
+
+        Path a = root.resolve("mapped/a.txt");
+        Path b = root.resolve("mapped/b.txt");
+        Path c = root.resolve("mapped/dir/c.txt");
+
+        mapped.put("mapped/a.txt", "aaaa");
+        mapped.put("mapped/b.txt", "bbbb");
+        mapped.put("mapped/dir/c.txt", "cccc");
+
+        //按最近读取的顺序淘汰
+        Assert.assertEquals("aaaa", mapped.read("mapped/a.txt"));
+        Assert.assertEquals("bbbb", mapped.read("mapped/b.txt"));
+        Assert.assertEquals("aaaa", mapped.read("mapped/a.txt"));
+        Assert.assertEquals("cccc", mapped.read("mapped/dir/c.txt"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(a, c)), mappedPaths(mapped));
+
+        //读取流打开期间被淘汰，映射在流关闭后才解除
+        try (InputStream inputStream = mapped.openReadStream("mapped/a.txt")) {
+            Assert.assertEquals('a', inputStream.read());
+
+            Assert.assertEquals("bbbb", mapped.read("mapped/b.txt"));
+            Assert.assertEquals("cccc", mapped.read("mapped/dir/c.txt"));
+            Assert.assertFalse(mappedPaths(mapped).contains(a));
+
+            Assert.assertEquals("aaa", StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8));
+        }
+
+        //覆盖写入后重新映射，已打开的流仍读到原来的内容
+        try (InputStream inputStream = mapped.openReadStream("mapped/b.txt")) {
+            mapped.put("mapped/b.txt", "BBBB");
+            Assert.assertEquals("BBBB", mapped.read("mapped/b.txt"));
+            Assert.assertEquals("bbbb", StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8));
+        }
+
+        mapped.delete("mapped/b.txt");
+        Assert.assertFalse(mappedPaths(mapped).contains(b));
+
+        Assert.assertEquals("cccc", mapped.read("mapped/dir/c.txt"));
+        mapped.delete("mapped/dir");
+        Assert.assertTrue(mappedPaths(mapped).isEmpty());
+
+        mapped.delete("mapped");
+    }
+
+    @Test
+    public void parallelWalk() throws IOException {
+        Path root = Files.createTempDirectory("sq_walk");
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties properties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        properties.setWorkingRoot(root.toString());
+        LocalFileSystem sequential = new LocalFileSystem(properties);
+
+        properties.setWalkParallelism(4);
+        LocalFileSystem parallel = new LocalFileSystem(properties);
+
+        try {
+            for (int i = 0; i < 4; ++i) {
+                for (int j = 0; j < 4; ++j) {
+                    parallel.put("walk/" + i + "/" + j + "/file_" + j + ".txt", "a");
+                    parallel.createDirectory("walk/" + i + "/" + j + "/empty");
+                }
+                parallel.put("walk/" + i + "/file_" + i + ".txt", "a");
+            }
+
+            for (boolean recursive : Arrays.asList(true, false)) {
+                for (String search : Arrays.asList("", "file_1")) {
+                    Assert.assertEquals(paths(sequential.files("walk", search, recursive)), paths(parallel.files("walk", search, recursive)));
+                    Assert.assertEquals(paths(sequential.directories("walk", search, recursive)), paths(parallel.directories("walk", search, recursive)));
+                }
+            }
+            Assert.assertEquals(20, parallel.files("walk", "", true).count());
+
+            parallel.copy("walk", "walk_copy", false);
+            Assert.assertEquals(
+                paths(sequential.files("walk", "", true)).stream().map(path -> path.replaceFirst("^/walk/", "/walk_copy/")).collect(Collectors.toSet()),
+                paths(sequential.files("walk_copy", "", true))
+            );
+
+            parallel.delete("walk/0");
+            Assert.assertFalse(sequential.exists("walk/0"));
+            Assert.assertEquals(15, sequential.files("walk", "", true).count());
+        }
+        catch (FileSystemException e) {
+            throw new RuntimeException(e);
+        }
+
+        parallel.delete("walk");
+        parallel.delete("walk_copy");
+        Assert.assertFalse(sequential.exists("walk"));
+        Assert.assertFalse(sequential.exists("walk_copy"));
+    }
+
+    @Test
+    public void watch() throws Exception {
+        Path root = Files.createTempDirectory("sq_watch");
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties properties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        properties.setWorkingRoot(root.toString());
+        LocalFileSystem local = new LocalFileSystem(properties);
+        local.createDirectory("watch");
+
+        BlockingQueue<PathEvent> events = new LinkedBlockingQueue<>();
+        try (PathWatcher ignored = local.watch("watch", events::add)) {
+            local.put("watch/a.txt", "a");
+            awaitEvent(events, PathEvent.Kind.Created, "/watch/a.txt");
+
+            local.put("watch/a.txt", "b");
+            awaitEvent(events, PathEvent.Kind.Modified, "/watch/a.txt");
+
+            local.delete("watch/a.txt");
+            awaitEvent(events, PathEvent.Kind.Deleted, "/watch/a.txt");
+        }
+
+        local.delete("watch");
+    }
+
+    @Test
+    public void pollingWatch() throws Exception {
+        Path root = Files.createTempDirectory("sq_polling_watch");
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties properties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        properties.setWorkingRoot(root.toString());
+        LocalFileSystem local = new LocalFileSystem(properties);
+        local.createDirectory("watch");
+
+        BlockingQueue<PathEvent> events = new LinkedBlockingQueue<>();
+        try (PathWatcher ignored = new PollingPathWatcher(local, "watch", events::add, Duration.ofMillis(50))) {
+            local.put("watch/a.txt", "a");
+            awaitEvent(events, PathEvent.Kind.Created, "/watch/a.txt");
+
+            local.put("watch/a.txt", "b");
+            Files.setLastModifiedTime(root.resolve("watch/a.txt"), FileTime.from(Instant.now().plus(Duration.ofHours(1))));
+            awaitEvent(events, PathEvent.Kind.Modified, "/watch/a.txt");
+
+            local.delete("watch/a.txt");
+            awaitEvent(events, PathEvent.Kind.Deleted, "/watch/a.txt");
+        }
+
+        local.delete("watch");
+    }
+
+    @Test
+    public void localMeta() throws IOException {
+        Path root = Files.createTempDirectory("sq_meta");
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties properties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        properties.setWorkingRoot(root.toString());
+        LocalFileSystem local = new LocalFileSystem(properties);
+
+        try {
+            local.put("meta/a.txt", "你好");
+            local.put("meta/sub/b.txt", "b");
+            local.createDirectory("meta/sub/empty");
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+
+        //一次stat得到的类型、大小及时间
+        PathMeta file = local.meta("meta/a.txt");
+        Assert.assertFalse(file.isDirectory());
+        Assert.assertEquals("/meta/a.txt", file.getPath());
+        Assert.assertEquals("你好".getBytes(StandardCharsets.UTF_8).length, file.getSize());
+        Assert.assertEquals(Files.getLastModifiedTime(root.resolve("meta/a.txt")).toInstant(), file.getLastModifiedTime());
+        Assert.assertNotNull(file.getCreationTime());
+
+        PathMeta directory = local.meta("meta/sub");
+        Assert.assertTrue(directory.isDirectory());
+        Assert.assertEquals(-1, directory.getSize());
+        Assert.assertNull(local.meta("meta/none"));
+
+        //递归列举不包含被列举的目录本身
+        try {
+            Assert.assertEquals(new HashSet<>(Arrays.asList("/meta/sub", "/meta/sub/empty")), paths(local.directories("meta", "", true)));
+            Assert.assertEquals(new HashSet<>(Arrays.asList("/meta/a.txt", "/meta/sub/b.txt")), paths(local.files("meta", "", true)));
+            Assert.assertEquals(Collections.singleton("/meta"), paths(local.directories("/", "", true)).stream().filter(p -> !p.startsWith("/meta/")).collect(Collectors.toSet()));
+        }
+        catch (PathNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+
+        local.delete("meta");
+    }
+
+    @Test
+    public void batch() {
+        Map<String, InputStream> files = new LinkedHashMap<>();
+        files.put("batch/a.txt", new ByteArrayInputStream("a".getBytes(StandardCharsets.UTF_8)));
+        files.put("batch/b/c.txt", new ByteArrayInputStream("c".getBytes(StandardCharsets.UTF_8)));
+
+        try {
+            fileSystem.putAll(files);
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+
+        List<String> paths = Arrays.asList("batch/a.txt", "batch/b/c.txt", "batch/none.txt");
+        Map<String, Boolean> exists = fileSystem.existsAll(paths);
+        Assert.assertTrue(exists.get("batch/a.txt"));
+        Assert.assertTrue(exists.get("batch/b/c.txt"));
+        Assert.assertFalse(exists.get("batch/none.txt"));
+        Assert.assertEquals(1, fileSystem.metaAll(paths).get("batch/b/c.txt").getSize());
+        Assert.assertNull(fileSystem.metaAll(paths).get("batch/none.txt"));
+
+        fileSystem.deleteAll(Arrays.asList("batch/a.txt", "batch/b"));
+        Assert.assertFalse(fileSystem.existsAll(paths).containsValue(true));
+    }
+
+    @Test
+    public void deleteAllNested() {
+        try {
+            fileSystem.put("delete_all/a/c/d.txt", "d");
+            fileSystem.put("delete_all/a/e.txt", "e");
+            fileSystem.put("delete_all/a-b/f.txt", "f");
+        }
+        catch (InvalidFileException e) {
+            throw new RuntimeException(e);
+        }
+
+        //排序后/a与/a/c之间隔着/a-b，/a/c仍须被当作/a的子孙路径
+        fileSystem.deleteAll(Arrays.asList("delete_all/a", "delete_all/a-b", "delete_all/a/c"));
+        Assert.assertFalse(fileSystem.existsAll(Arrays.asList("delete_all/a", "delete_all/a-b")).containsValue(true));
+
+        fileSystem.delete("delete_all");
+    }
+
+    @Test
+    public void prefix() {
+        try {
+            fileSystem.put("prefix/ab_1", "a");
+            fileSystem.put("prefix/xab_1", "b");
+            fileSystem.createDirectory("prefix/ab");
+
+            Assert.assertEquals(Collections.singletonList("ab_1"), fileSystem.filesWithPrefix("prefix", "ab").map(PathMeta::getName).collect(Collectors.toList()));
+            Assert.assertEquals(1, fileSystem.directoriesWithPrefix("prefix", "ab").count());
+            Assert.assertEquals(2, fileSystem.filesWithPrefix("prefix", "").count());
+        }
+        catch (FileSystemException e) {
+            throw new RuntimeException(e);
+        }
+
+        fileSystem.delete("prefix");
+    }
+
+    @Test
+    public void pageWithTiedKeys() {
+        fileSystem.delete("page");
+
+        try {
+            for (int i = 0; i < 50; ++i) {
+                fileSystem.put("page/" + i + ".txt", "a");
+            }
+
+            //排序键全都相同，逐页读取时每个文件仍恰好出现一次
+            for (PathMetaSort sort : Arrays.asList(PathMetaSort.Size, PathMetaSort.IsDirectoryDesc)) {
+                List<String> paths = new ArrayList<>();
+                for (int offset = 0; offset < 50; offset += 7) {
+                    fileSystem.files("page", "", false, offset, 7, sort).map(PathMeta::getPath).forEach(paths::add);
+                }
+
+                Assert.assertEquals(50, paths.size());
+                Assert.assertEquals(50, new HashSet<>(paths).size());
+            }
+        }
+        catch (FileSystemException e) {
+            throw new RuntimeException(e);
+        }
+
+        fileSystem.delete("page");
+    }
+
     @Test
     public void writeAndFind() {
         String file = "exists.txt";
@@ -142,4 +792,36 @@ public class FileSystemTest {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * 等待指定的事件，其他事件被忽略。部分平台的WatchService以轮询实现，所以等待时间较长。
+     */
+    protected void awaitEvent(BlockingQueue<PathEvent> events, PathEvent.Kind kind, String path) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15000;
+
+        long wait;
+        while ((wait = deadline - System.currentTimeMillis()) > 0) {
+            PathEvent event = events.poll(wait, TimeUnit.MILLISECONDS);
+            if (null != event && kind == event.getKind() && path.equals(event.getPath())) return;
+        }
+
+        Assert.fail("没有收到" + kind + " " + path);
+    }
+
+    private Set<String> paths(Stream<? extends PathMeta> stream) {
+        return stream.map(PathMeta::getPath).collect(Collectors.toSet());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Path> mappedPaths(LocalFileSystem localFileSystem) throws ReflectiveOperationException {
+        Field cacheField = LocalFileSystem.class.getDeclaredField("mappedFileCache");
+        cacheField.setAccessible(true);
+        Object cache = cacheField.get(localFileSystem);
+
+        Field regionsField = cache.getClass().getDeclaredField("regions");
+        regionsField.setAccessible(true);
+        synchronized (cache) {
+            return new HashSet<>(((Map<Path, ?>) regionsField.get(cache)).keySet());
+        }
+    }
 }
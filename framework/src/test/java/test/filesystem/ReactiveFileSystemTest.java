@@ -0,0 +1,107 @@
+package test.filesystem;
+
+import com.ai.southernquiet.FrameworkAutoConfiguration;
+import com.ai.southernquiet.filesystem.ChecksumMismatchException;
+import com.ai.southernquiet.filesystem.FileSystem;
+import com.ai.southernquiet.filesystem.ReactiveFileSystem;
+import com.ai.southernquiet.filesystem.ReactiveFileSystemAdapter;
+import com.ai.southernquiet.filesystem.driver.LocalFileSystem;
+import com.ai.southernquiet.filesystem.driver.LocalReactiveFileSystem;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class ReactiveFileSystemTest {
+    private DataBufferFactory dataBufferFactory = new DefaultDataBufferFactory();
+
+    @Test
+    public void localIO() throws IOException {
+        LocalFileSystem fileSystem = newFileSystem();
+        roundTrip(new LocalReactiveFileSystem(fileSystem, Schedulers.elastic(), dataBufferFactory, 4));
+    }
+
+    @Test
+    public void adaptedIO() throws IOException {
+        FileSystem fileSystem = newFileSystem();
+        roundTrip(new ReactiveFileSystemAdapter(fileSystem, Schedulers.elastic(), dataBufferFactory, 4));
+    }
+
+    @Test(expected = ChecksumMismatchException.class)
+    public void checksum() throws Throwable {
+        Path root = Files.createTempDirectory("sq_reactive_checksum");
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties properties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        properties.setWorkingRoot(root.toString());
+        properties.setChecksum(true);
+        LocalFileSystem fileSystem = new LocalFileSystem(properties);
+        ReactiveFileSystem reactive = new LocalReactiveFileSystem(fileSystem, Schedulers.elastic(), dataBufferFactory, 4);
+
+        reactive.put("checksum/a.txt", data("你好，Spring Boot。")).block();
+        Assume.assumeNotNull(fileSystem.meta("checksum/a.txt").getChecksum());
+
+        Files.write(root.resolve("checksum/a.txt"), "再见".getBytes(StandardCharsets.UTF_8), StandardOpenOption.WRITE);
+
+        try {
+            read(reactive.read("checksum/a.txt"));
+        }
+        catch (RuntimeException e) {
+            throw Exceptions.unwrap(e);
+        }
+    }
+
+    /**
+     * bufferSize很小，读取的内容跨越多个DataBuffer。
+     */
+    private void roundTrip(ReactiveFileSystem reactive) {
+        reactive.put("reactive/a.txt", data("你好，")).block();
+        reactive.put("reactive/a.txt", data("你好，Spring Boot。")).block();
+        Assert.assertEquals("你好，Spring Boot。", read(reactive.read("reactive/a.txt")));
+
+        reactive.append("reactive/a.txt", Flux.concat(data("再见"), data("。"))).block();
+        Assert.assertEquals("你好，Spring Boot。再见。", read(reactive.read("reactive/a.txt")));
+        Assert.assertEquals("Spring", read(reactive.read("reactive/a.txt", "你好，".getBytes(StandardCharsets.UTF_8).length, 6)));
+
+        reactive.append("reactive/b.txt", data("新文件")).block();
+        Assert.assertEquals("新文件", read(reactive.read("reactive/b.txt")));
+
+        Assert.assertEquals(2, reactive.files("reactive", "", false, 0, -1, null).count().block().intValue());
+
+        reactive.delete("reactive").block();
+        Assert.assertFalse(reactive.exists("reactive/a.txt").block());
+    }
+
+    private LocalFileSystem newFileSystem() throws IOException {
+        FrameworkAutoConfiguration.LocalFileSystemProperties properties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        properties.setWorkingRoot(Files.createTempDirectory("sq_reactive").toString());
+
+        return new LocalFileSystem(properties);
+    }
+
+    private Flux<DataBuffer> data(String txt) {
+        return Flux.just(dataBufferFactory.wrap(txt.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String read(Flux<DataBuffer> flux) {
+        DataBuffer buffer = DataBufferUtils.join(flux).block();
+        if (null == buffer) return "";
+
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        DataBufferUtils.release(buffer);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
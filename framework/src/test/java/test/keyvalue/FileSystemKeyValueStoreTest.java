@@ -0,0 +1,95 @@
+package test.keyvalue;
+
+import com.ai.southernquiet.FrameworkAutoConfiguration;
+import com.ai.southernquiet.filesystem.FanOutLayout;
+import com.ai.southernquiet.filesystem.driver.LocalFileSystem;
+import com.ai.southernquiet.keyvalue.KeyValueStore;
+import com.ai.southernquiet.keyvalue.driver.FileSystemKeyValueStore;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+public class FileSystemKeyValueStoreTest {
+    /**
+     * 去重时新写入的键与已有的旧文件共享数据，但其创建时间必须是本次写入的时间，否则立即过期。
+     */
+    @Test
+    public void dedup() throws IOException {
+        Path root = Files.createTempDirectory("sq_kv_dedup");
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties properties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        properties.setWorkingRoot(root.toString());
+        properties.getDedup().setEnable(true);
+        properties.getDedup().setBlobRoot(Files.createTempDirectory("sq_kv_dedup_blobs").toString());
+        properties.getDedup().setCollectInterval(null);
+
+        KeyValueStore store = new FileSystemKeyValueStore(new FrameworkAutoConfiguration.KeyValueStoreProperties.FileSystem(), new LocalFileSystem(properties));
+
+        store.put("a", "你好", 60 * 1000);
+
+        FileTime old = FileTime.from(Instant.now().minus(Duration.ofDays(1)));
+        try (Stream<Path> stream = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) stream.filter(Files::isRegularFile)::iterator) {
+                Files.getFileAttributeView(file, BasicFileAttributeView.class).setTimes(old, old, old);
+            }
+        }
+
+        store.put("b", "你好", 60 * 1000);
+        Assert.assertEquals("你好", store.get("b"));
+    }
+
+    @Test
+    public void fanOutLayout() {
+        Assert.assertEquals("/root/3c/6e/key", new FanOutLayout(2, 2).getPath("/root", "key"));
+        Assert.assertEquals("/root/3c6e0b8a9c15224a8228b9a98ca1531d/key", new FanOutLayout(1, 32).getPath("/root", "key"));
+        Assert.assertEquals("/root/key", FanOutLayout.Flat.getPath("/root", "key"));
+        Assert.assertEquals("/root/key", new FanOutLayout(2, 0).getPath("/root", "key"));
+
+        new FanOutLayout(8, 4);
+        for (int[] invalid : new int[][]{{11, 3}, {-1, 2}, {2, -1}, {65536, 65536}}) {
+            try {
+                new FanOutLayout(invalid[0], invalid[1]);
+                Assert.fail(Arrays.toString(invalid));
+            }
+            catch (IllegalArgumentException e) {
+                //pass
+            }
+        }
+    }
+
+    @Test
+    public void fanOut() throws IOException {
+        Path root = Files.createTempDirectory("sq_kv_fan_out");
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties properties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        properties.setWorkingRoot(root.toString());
+
+        FrameworkAutoConfiguration.KeyValueStoreProperties.FileSystem storeProperties = new FrameworkAutoConfiguration.KeyValueStoreProperties.FileSystem();
+        storeProperties.setFanOutLevels(2);
+        storeProperties.setFanOutWidth(2);
+        KeyValueStore store = new FileSystemKeyValueStore(storeProperties, new LocalFileSystem(properties));
+
+        store.put("key", "你好", 60 * 1000);
+        store.put("other", "再见", 60 * 1000);
+        Assert.assertTrue(Files.isRegularFile(root.resolve(storeProperties.getWorkingRoot()).resolve("3c/6e/key__60000")));
+        Assert.assertEquals("你好", store.get("key"));
+        Assert.assertNull(store.get("none"));
+
+        store.touch("key", 120 * 1000);
+        Assert.assertTrue(Files.isRegularFile(root.resolve(storeProperties.getWorkingRoot()).resolve("3c/6e/key__120000")));
+        Assert.assertEquals("你好", store.get("key"));
+
+        store.remove("key", "none");
+        Assert.assertNull(store.get("key"));
+        Assert.assertEquals("再见", store.get("other"));
+    }
+}
@@ -1,5 +1,6 @@
 package com.ai.southernquiet.web.session.jetty;
 
+import com.ai.southernquiet.filesystem.FanOutLayout;
 import com.ai.southernquiet.filesystem.FileSystem;
 import com.ai.southernquiet.filesystem.InvalidFileException;
 import com.ai.southernquiet.filesystem.PathMeta;
@@ -15,6 +16,7 @@ import java.io.InputStream;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * 基于{@link com.ai.southernquiet.filesystem.FileSystem}的Jetty Session持久化.
@@ -22,9 +24,11 @@ import java.util.stream.Collectors;
 public class FileSessionDataStore extends AbstractSessionDataStore {
     private FileSystem fileSystem;
     private String workingRoot; //Session持久化在FileSystem中的路径
+    private FanOutLayout layout; //按Session id分散到子目录
 
     public FileSessionDataStore(FileSystem fileSystem, JettyAutoConfiguration.FileSessionProperties properties) {
         this.workingRoot = properties.getWorkingRoot();
+        this.layout = new FanOutLayout(properties.getFanOutLevels(), properties.getFanOutWidth());
         this.fileSystem = fileSystem;
 
         fileSystem.createDirectory(this.workingRoot);
@@ -32,7 +36,7 @@ public class FileSessionDataStore extends AbstractSessionDataStore {
 
     @Override
     public void doStore(String id, SessionData data, long lastSaveTime) throws Exception {
-        fileSystem.put(getFilePath(id), serialize(data));
+        fileSystem.putAtomically(getFilePath(id), serialize(data));
     }
 
     @Override
@@ -40,15 +44,7 @@ public class FileSessionDataStore extends AbstractSessionDataStore {
         long now = System.currentTimeMillis();
 
         return candidates.stream()
-            .map(id -> {
-                try {
-                    return fileSystem.files(workingRoot, id);
-                }
-                catch (PathNotFoundException e) {
-                    throw new RuntimeException(e);
-                }
-            })
-            .flatMap(metas -> metas)
+            .flatMap(this::findFiles)
             .filter(meta -> getByMeta(meta).getExpiry() <= now)
             .map(meta -> meta.getName())
             .collect(Collectors.toSet());
@@ -63,12 +59,12 @@ public class FileSessionDataStore extends AbstractSessionDataStore {
     public boolean exists(String id) throws Exception {
         long now = System.currentTimeMillis();
 
-        return fileSystem.files(workingRoot, id).anyMatch(meta -> getByMeta(meta).getExpiry() > now);
+        return findFiles(id).anyMatch(meta -> getByMeta(meta).getExpiry() > now);
     }
 
     @Override
     public SessionData load(String id) throws Exception {
-        Optional<? extends PathMeta> opt = fileSystem.files(workingRoot, id).findFirst();
+        Optional<? extends PathMeta> opt = findFiles(id).findFirst();
         if (opt.isPresent()) {
             try (InputStream inputStream = fileSystem.openReadStream(opt.get().getPath())) {
                 return deserialize(inputStream);
@@ -80,14 +76,30 @@ public class FileSessionDataStore extends AbstractSessionDataStore {
 
     @Override
     public boolean delete(String id) throws Exception {
-        Optional<? extends PathMeta> opt = fileSystem.files(workingRoot, id).findFirst();
+        Optional<? extends PathMeta> opt = findFiles(id).findFirst();
         opt.ifPresent(meta -> fileSystem.delete(meta.getPath()));
 
         return true;
     }
 
+    /**
+     * 启用子目录分散后，未保存过的Session所在的子目录可能不存在。
+     */
+    private Stream<? extends PathMeta> findFiles(String sessionId) {
+        try {
+            return fileSystem.filesWithPrefix(getDirectory(sessionId), sessionId);
+        }
+        catch (PathNotFoundException e) {
+            return Stream.empty();
+        }
+    }
+
+    private String getDirectory(String sessionId) {
+        return layout.getDirectory(workingRoot, sessionId);
+    }
+
     private String getFilePath(String sessionId) {
-        return workingRoot + FileSystem.PATH_SEPARATOR + sessionId;
+        return layout.getPath(workingRoot, sessionId);
     }
 
     private SessionData getByMeta(PathMeta meta) {
@@ -44,6 +44,30 @@ public class JettyAutoConfiguration {
          * Session持久化在FileSystem中的路径
          */
         private String workingRoot = "SESSION";
+        /**
+         * 按Session id的哈希值把Session分散到多级子目录的层数，为0时所有Session位于workingRoot下
+         */
+        private int fanOutLevels = 0;
+        /**
+         * 每层子目录名的长度
+         */
+        private int fanOutWidth = 2;
+
+        public int getFanOutLevels() {
+            return fanOutLevels;
+        }
+
+        public void setFanOutLevels(int fanOutLevels) {
+            this.fanOutLevels = fanOutLevels;
+        }
+
+        public int getFanOutWidth() {
+            return fanOutWidth;
+        }
+
+        public void setFanOutWidth(int fanOutWidth) {
+            this.fanOutWidth = fanOutWidth;
+        }
 
         public String getWorkingRoot() {
             return workingRoot;
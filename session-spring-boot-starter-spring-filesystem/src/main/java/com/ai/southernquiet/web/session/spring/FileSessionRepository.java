@@ -1,5 +1,6 @@
 package com.ai.southernquiet.web.session.spring;
 
+import com.ai.southernquiet.filesystem.FanOutLayout;
 import com.ai.southernquiet.filesystem.FileSystem;
 import com.ai.southernquiet.filesystem.InvalidFileException;
 import com.ai.southernquiet.filesystem.NormalizedPath;
@@ -25,9 +26,11 @@ import java.util.UUID;
 public class FileSessionRepository implements SessionRepository<Session> {
     private FileSystem fileSystem;
     private String workingRoot; //Session持久化在FileSystem中的路径
+    private FanOutLayout layout; //按Session id分散到子目录
 
     public FileSessionRepository(FileSystem fileSystem, SpringSessionAutoConfiguration.FileSessionProperties properties) {
         this.workingRoot = properties.getWorkingRoot();
+        this.layout = new FanOutLayout(properties.getFanOutLevels(), properties.getFanOutWidth());
         this.fileSystem = fileSystem;
 
         fileSystem.createDirectory(this.workingRoot);
@@ -41,7 +44,7 @@ public class FileSessionRepository implements SessionRepository<Session> {
     @Override
     public void save(Session session) {
         try {
-            fileSystem.put(getFilePath(session.getId()), serialize(session));
+            fileSystem.putAtomically(getFilePath(session.getId()), serialize(session));
         }
         catch (InvalidFileException e) {
             throw new RuntimeException(e);
@@ -68,8 +71,7 @@ public class FileSessionRepository implements SessionRepository<Session> {
     }
 
     private String getFilePath(String sessionId) {
-        NormalizedPath path = new NormalizedPath(new String[]{workingRoot, sessionId});
-        return path.toString();
+        return NormalizedPath.of(layout.getPath(workingRoot, sessionId)).toString();
     }
 
     private InputStream serialize(Session session) {